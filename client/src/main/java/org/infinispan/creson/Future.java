@@ -42,6 +42,7 @@ public class Future<V> implements java.util.concurrent.Future<V>, Externalizable
     }
 
     @Override
+    @Parkable
     public synchronized V get() throws InterruptedException{
         if (status == 0)
             this.wait();
@@ -11,6 +11,7 @@ public class Semaphore {
         this.permits = permits;
     }
 
+    @Parkable
     public synchronized void acquire() throws InterruptedException{
         while (permits<=0) this.wait();
         permits--;
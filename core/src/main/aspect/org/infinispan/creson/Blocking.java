@@ -0,0 +1,57 @@
+package org.infinispan.creson;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.aspectj.lang.annotation.SuppressAjWarnings;
+import org.infinispan.creson.utils.Parking;
+
+/**
+ * Parks the calls that wait on a monitor at the server, instead of blocking the executing thread.
+ * Timed waits still block.
+ * The advices apply to the shared classes woven with this aspect, hence not in this module.
+ *
+ * @author Pierre Sutra
+ */
+@Aspect
+public class Blocking {
+
+    @SuppressAjWarnings("adviceDidNotMatch")
+    @Around("call(void java.lang.Object.wait())")
+    public void waitAdvice(ProceedingJoinPoint pjp) throws Throwable {
+        park();
+        pjp.proceed();
+    }
+
+    @SuppressAjWarnings("adviceDidNotMatch")
+    @Around("call(void java.lang.Object.wait(long)) && args(timeout)")
+    public void timedWaitAdvice(ProceedingJoinPoint pjp, long timeout) throws Throwable {
+        if (timeout == 0)
+            park();
+        pjp.proceed();
+    }
+
+    @SuppressAjWarnings("adviceDidNotMatch")
+    @Before("call(void java.lang.Object.notify())")
+    public void notifyAdvice() {
+        Parking parking = Parking.current();
+        if (parking != null)
+            parking.notified(1);
+    }
+
+    @SuppressAjWarnings("adviceDidNotMatch")
+    @Before("call(void java.lang.Object.notifyAll())")
+    public void notifyAllAdvice() {
+        Parking parking = Parking.current();
+        if (parking != null)
+            parking.notified(Parking.ALL);
+    }
+
+    private static void park() {
+        Parking parking = Parking.current();
+        if (parking != null)
+            parking.park();
+    }
+
+}
@@ -0,0 +1,18 @@
+package org.infinispan.creson;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Marks a method whose calls commute with each other, e.g., adding to a counter.
+ * Such calls are not ordered by the lock on the object's key, thus they may be replicated concurrently.
+ *
+ * @author Pierre Sutra
+ */
+
+@Target(ElementType.METHOD)
+@Retention(value = RetentionPolicy.RUNTIME)
+public @interface Commutative {}
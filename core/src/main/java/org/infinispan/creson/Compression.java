@@ -0,0 +1,21 @@
+package org.infinispan.creson;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Sets the size from which the byte arrays exchanged with a shared class (arguments, results and states)
+ * are compressed, instead of the default of {@link org.infinispan.creson.utils.Encoding}.
+ * A threshold of 0 disables compression for the class.
+ *
+ * @author Pierre Sutra
+ */
+
+@Target(ElementType.TYPE)
+@Retention(value = RetentionPolicy.RUNTIME)
+public @interface Compression {
+    int threshold();
+}
@@ -2,6 +2,7 @@ package org.infinispan.creson;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
+import javassist.util.proxy.ProxyObject;
 import org.infinispan.client.hotrod.RemoteCache;
 import org.infinispan.client.hotrod.RemoteCacheManager;
 import org.infinispan.client.hotrod.configuration.ClientIntelligence;
@@ -10,14 +11,22 @@ import org.infinispan.commons.api.BasicCache;
 import org.infinispan.commons.logging.Log;
 import org.infinispan.commons.logging.LogFactory;
 import org.infinispan.creson.container.AbstractContainer;
+import org.infinispan.creson.container.Batcher;
 import org.infinispan.creson.container.BaseContainer;
+import org.infinispan.creson.container.InvalidationListener;
+import org.infinispan.creson.container.RetryPolicy;
 import org.infinispan.creson.object.Reference;
 import org.infinispan.creson.utils.ContextManager;
+import org.infinispan.creson.utils.CresonMarshaller;
 
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static org.infinispan.creson.utils.Reflection.getConstructor;
 
@@ -53,6 +62,10 @@ public class Factory {
     public synchronized static Factory forCache(BasicCache cache, int maxContainers, boolean force) {
         assert !(cache instanceof RemoteCache) ||
                 ((RemoteCache)cache).getRemoteCacheManager().getConfiguration().forceReturnValues();
+        if (cache instanceof RemoteCache
+                && !(((RemoteCache) cache).getRemoteCacheManager().getMarshaller() instanceof CresonMarshaller))
+            throw new CacheException("The remote cache " + cache.getName() + " must use "
+                    + CresonMarshaller.class.getName() + " (see ConfigurationBuilder.marshaller)");
 
         if (!factories.containsKey(cache))
             factories.put(cache, new Factory(cache, maxContainers));
@@ -81,6 +94,7 @@ public class Factory {
                 .host(host)
                 .port(port)
                 .forceReturnValues(true)
+                .marshaller(new CresonMarshaller())
                 .addJavaSerialWhiteList(".*")
                 .connectionTimeout(3000)
                 .maxRetries(5);
@@ -96,6 +110,9 @@ public class Factory {
     private BasicCache cache;
     private final ConcurrentMap<Reference, AbstractContainer> registeredContainers;
     private int maxSize;
+    private Batcher batcher;
+    private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private InvalidationListener invalidationListener;
 
     /**
      * Return an Factory built on top of cache <i>c</i>.
@@ -186,6 +203,19 @@ public class Factory {
     @Deprecated
     public <T> T getInstanceOf(Class<T> clazz, Object key, boolean withReadOptimization, boolean withIdempotence,
                                boolean forceNew, Object... initArgs) throws CacheException {
+        return getInstanceOf(clazz, key, withReadOptimization, 0, withIdempotence, forceNew, initArgs);
+    }
+
+    /**
+     * Returns an object of class <i>clazz</i>, as above.
+     * With the read optimization, a read-only call is executed locally only if the copy of the object is
+     * younger than <i>lease</i> milliseconds.
+     * On top of a remote cache, the copy is also invalidated each time the server notifies that the object changed.
+     *
+     * @param lease max. staleness (in milliseconds) of a local call; 0 for no bound.
+     */
+    public <T> T getInstanceOf(Class<T> clazz, Object key, boolean withReadOptimization, long lease,
+                               boolean withIdempotence, boolean forceNew, Object... initArgs) throws CacheException {
 
         Reference reference;
         AbstractContainer container = null;
@@ -204,6 +234,12 @@ public class Factory {
                     throw new CacheException(clazz + " no constructor with "+ Arrays.toString(initArgs));
                 }
                 container = new BaseContainer(cache, clazz, key, withReadOptimization, withIdempotence, forceNew, initArgs);
+                container.setBatcher(batcher);
+                container.setRetryPolicy(retryPolicy);
+                if (lease > 0) {
+                    container.setLease(lease);
+                    listenInvalidations();
+                }
                 reference = container.getReference();
                 if (registeredContainers.putIfAbsent(reference, container) == null) {
                     if (log.isTraceEnabled())
@@ -223,6 +259,89 @@ public class Factory {
 
     }
 
+    private synchronized void listenInvalidations() {
+        if (invalidationListener == null && cache instanceof RemoteCache) {
+            invalidationListener = new InvalidationListener(registeredContainers);
+            ((RemoteCache) cache).addClientListener(invalidationListener);
+        }
+    }
+
+    /**
+     * Sets how the objects subsequently created by this factory time out and retry their calls.
+     *
+     * @param retryPolicy a retry policy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Coalesces the concurrent calls to the shared objects into batches, each batch being sent in a single message
+     * (see {@link Batcher}).
+     * This applies to the objects subsequently created by this factory.
+     *
+     * @param size   max. amount of calls in a batch; 1 disables batching.
+     * @param window max. time a call waits for its batch to fill in.
+     * @param unit   the time unit of <i>window</i>
+     */
+    public void setBatching(int size, long window, TimeUnit unit) {
+        this.batcher = size > 1 ? new Batcher(cache, size, unit.toMicros(window)) : null;
+    }
+
+    /**
+     * Calls <i>method</i> on a shared object without blocking the caller.
+     * Several calls may thus be pending at once from the same thread.
+     *
+     * @param instance a shared object, as returned by <i>getInstanceOf</i>
+     * @param method   the name of the method to call
+     * @param args     the arguments of the call
+     * @return a future completed with the result of the call.
+     * @throws CacheException
+     */
+    public <T> CompletableFuture<T> invokeAsync(Object instance, String method, Object... args)
+            throws CacheException {
+
+        try {
+            return containerOf(instance).invokeAsync(method, args);
+        } catch (Throwable e) {
+            throw new CacheException(e);
+        }
+
+    }
+
+    /**
+     * Calls a method on a shared object without blocking the caller, e.g.,
+     * <i>factory.invokeAsync(counter, c -&gt; c.increment())</i>.
+     * Inside <i>call</i>, the shared object returns a placeholder (null, 0 or false).
+     *
+     * @param instance a shared object, as returned by <i>getInstanceOf</i>
+     * @param call     a single call to a method of <i>instance</i>
+     * @return a future completed with the result of the call.
+     * @throws CacheException
+     */
+    public <T, R> CompletableFuture<R> invokeAsync(T instance, Function<? super T, R> call)
+            throws CacheException {
+        return containerOf(instance).invokeAsync(() -> call.apply(instance));
+    }
+
+    /**
+     * As {@link #invokeAsync(Object, Function)}, for a method returning no value.
+     */
+    public <T> CompletableFuture<Void> runAsync(T instance, Consumer<? super T> call)
+            throws CacheException {
+        return containerOf(instance).invokeAsync(() -> call.accept(instance));
+    }
+
+    private static AbstractContainer containerOf(Object instance) {
+        if (!(instance instanceof ProxyObject)
+                || !(((ProxyObject) instance).getHandler() instanceof AbstractContainer))
+            throw new CacheException(instance + " is not a shared object");
+        return (AbstractContainer) ((ProxyObject) instance).getHandler();
+    }
 
     @Deprecated
     public void disposeInstanceOf(Reference reference)
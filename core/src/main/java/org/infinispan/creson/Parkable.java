@@ -0,0 +1,21 @@
+package org.infinispan.creson;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Marks a method (or all the methods of a class) whose calls may be parked at the server when they wait
+ * indefinitely on the monitor of the object, instead of blocking the executing thread.
+ * A parked call is executed anew once notified. To that end, the state of the object is saved before each call,
+ * and restored if the call modified the object then parked.
+ * The calls to the other methods block the executing thread (and the object) while they wait.
+ *
+ * @author Pierre Sutra
+ */
+
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(value = RetentionPolicy.RUNTIME)
+public @interface Parkable {}
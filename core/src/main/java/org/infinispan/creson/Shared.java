@@ -13,6 +13,7 @@ public @interface Shared {
     String DEFAULT_KEY = "__none";
     String SEPARATOR = "#";
     boolean readOptimization() default false;
+    long lease() default 0; // max. staleness in ms of the local reads (0 = unbounded)
     boolean forceNew() default false;
     boolean isIdempotent() default true;
     String key() default DEFAULT_KEY;
@@ -4,16 +4,25 @@ import io.netty.util.concurrent.CompleteFuture;
 import javassist.util.proxy.MethodFilter;
 import org.infinispan.commons.logging.Log;
 import org.infinispan.commons.logging.LogFactory;
+import org.infinispan.commons.marshall.Marshaller;
+import org.infinispan.commons.marshall.jboss.GenericJBossMarshaller;
 import org.infinispan.creson.object.Call;
 import org.infinispan.creson.object.CallResponse;
 import org.infinispan.creson.object.Reference;
+import org.infinispan.creson.utils.Context;
+import org.infinispan.creson.utils.ContextManager;
 
+import java.io.IOException;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.infinispan.creson.utils.Reflection.hasReadOnlyMethods;
 
@@ -28,16 +37,31 @@ public abstract class AbstractContainer {
 
    public static final int TTIMEOUT_TIME = 1000;
    public static final int MAX_ATTEMPTS = 3;
-   protected static final Map<UUID, CompletableFuture<CallResponse>> registeredCalls = new ConcurrentHashMap<>();
+   protected static final Map<Call, CompletableFuture<CallResponse>> registeredCalls = new ConcurrentHashMap<>();
    protected static final Log log = LogFactory.getLog(AbstractContainer.class);
+   protected static final Marshaller stateMarshaller = new GenericJBossMarshaller();
    protected static final MethodFilter methodFilter = m -> !m.getName().equals("finalize");
+   private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "creson-timer");
+      thread.setDaemon(true);
+      return thread;
+   });
+   private static final ThreadLocal<AsyncCall> asyncCall = new ThreadLocal<>();
 
    protected boolean readOptimization;
    protected boolean isIdempotent;
    protected Object proxy;
-   protected Object state;
+   protected volatile Object state;
+   protected volatile long stateVersion;
+   private final Object stateLock = new Object();
+   protected long lease = 0;
+   private volatile long leaseExpiry;
+   private volatile int invalidations;
    protected boolean forceNew;
    protected Object[] initArgs;
+   protected Batcher batcher;
+   protected RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+   protected RoundTripTimes rtts = new RoundTripTimes(RetryPolicy.DEFAULT.getPercentile());
 
    public AbstractContainer(
          Class clazz,
@@ -57,8 +81,90 @@ public abstract class AbstractContainer {
 
    public abstract Reference getReference();
 
+   public void setRetryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      this.rtts = new RoundTripTimes(retryPolicy.getPercentile());
+   }
+
+   /**
+    * Sends the calls to this object through <i>batcher</i>, with the calls to other objects.
+    *
+    * @param batcher a batcher, or null to send each call on its own.
+    */
+   public void setBatcher(Batcher batcher) {
+      this.batcher = batcher;
+   }
+
+   /**
+    * Bounds the staleness of the calls executed locally on the state of the object.
+    * Past <i>lease</i> milliseconds after it was received, or upon an invalidation, the state is refreshed remotely.
+    *
+    * @param lease max. age (in milliseconds) of the state; 0 for no bound.
+    */
+   public void setLease(long lease) {
+      this.lease = lease;
+   }
+
+   /**
+    * Drops the lease on the state of the object, e.g., because the object was modified elsewhere.
+    */
+   public void invalidate() {
+      synchronized (stateLock) {
+         invalidations++;
+         leaseExpiry = 0;
+      }
+   }
+
+   /**
+    * @return true if the state of the object may serve a local call.
+    */
+   protected boolean hasLease() {
+      return state != null && (lease == 0 || System.nanoTime() - leaseExpiry < 0);
+   }
+
    public abstract void doExecute(Call call);
 
+   public abstract CompletableFuture<Void> doExecuteAsync(Call call);
+
+   /**
+    * Calls <i>method</i> on the shared object without blocking the caller.
+    *
+    * @param method the name of the method
+    * @param args its arguments
+    * @return a future completed with the result of the call, or exceptionally if the call failed.
+    */
+   public abstract <T> CompletableFuture<T> invokeAsync(String method, Object... args) throws Throwable;
+
+   /**
+    * Runs <i>call</i>, which invokes a method of the proxy of this object, and sends that invocation without
+    * blocking the caller. The value returned by the proxy meanwhile is a placeholder (e.g., null or 0).
+    *
+    * @return a future completed with the result of the invocation, or exceptionally if the call failed.
+    */
+   public <T> CompletableFuture<T> invokeAsync(Runnable call) {
+      AsyncCall capture = new AsyncCall(this);
+      AsyncCall previous = asyncCall.get();
+      asyncCall.set(capture);
+      try {
+         call.run();
+      } finally {
+         asyncCall.set(previous);
+      }
+      if (capture.future == null)
+         throw new IllegalArgumentException("No method of " + getReference() + " was called");
+      return (CompletableFuture<T>) capture.future;
+   }
+
+   /**
+    * @return the pending asynchronous invocation of this object on the calling thread, if any (at most once).
+    */
+   protected AsyncCall takeAsyncCall() {
+      AsyncCall capture = asyncCall.get();
+      if (capture == null || capture.container != this || capture.future != null)
+         return null;
+      return capture;
+   }
+
    protected Object execute(Call call)
          throws Throwable {
 
@@ -67,38 +173,48 @@ public abstract class AbstractContainer {
 
       CompletableFuture<CallResponse> future = new CompletableFuture<CallResponse>();
 
-      registeredCalls.put(call.getCallID(), future);
+      registeredCalls.put(call, future);
+      if (readOptimization) call.setStateVersion(stateVersion);
+      Context context = register(call);
+      long sent = System.nanoTime();
+      int epoch = invalidations;
 
       CallResponse response = null;
       Object ret = null;
       int attempts = 0;
-      while(!future.isDone()) {
-         try {
-            attempts++;
-            doExecute(call);
-            response = future.get(TTIMEOUT_TIME, TimeUnit.MILLISECONDS);
-            ret = response.getResult();
-//            if (ret instanceof Throwable)
-//               throw new ExecutionException((Throwable) ret);
-         }catch (TimeoutException e) {
-            if (!future.isDone())
-               log.warn(" Failed "+ call + " ("+e.getMessage()+")");
-            if (attempts==MAX_ATTEMPTS) {
-               registeredCalls.remove(call.getCallID());
-               throw new TimeoutException(call + " failed");
+      try {
+         while(!future.isDone()) {
+            long timeout = retryPolicy.timeout(attempts + 1, rtts.percentile(), isIdempotent);
+            try {
+               attempts++;
+               long start = System.nanoTime();
+               doExecute(call);
+               response = future.get(timeout, TimeUnit.MILLISECONDS);
+               if (attempts == 1) // ignore ambiguous samples
+                  rtts.add(System.nanoTime() - start);
+               ret = response.getResult();
+//               if (ret instanceof Throwable)
+//                  throw new ExecutionException((Throwable) ret);
+            }catch (TimeoutException e) {
+               if (!future.isDone())
+                  log.warn(" Failed "+ call + " after "+timeout+"ms ("+e.getMessage()+")");
+               if (attempts==retryPolicy.getMaxAttempts()) {
+                  registeredCalls.remove(call);
+                  throw new TimeoutException(call + " failed");
+               }
+               Thread.sleep(retryPolicy.backoff(attempts));
             }
-            Thread.sleep(TTIMEOUT_TIME);
-         }
-         if (ret instanceof Throwable)
-            throw (Throwable) ret;
+            if (ret instanceof Throwable)
+               throw (Throwable) ret;
 
+         }
+      } finally {
+         context.release(call.getCallerID(), call.getCallID());
       }
 
-      registeredCalls.remove(call.getCallID());
+      registeredCalls.remove(call);
 
-      if (readOptimization && response.getState()!=null ) {
-         this.state = response.getState();
-      }
+      updateState(response, sent, epoch);
 
       if (log.isTraceEnabled())
          log.trace(this + " Returning " + ret);
@@ -108,19 +224,154 @@ public abstract class AbstractContainer {
    }
 
 
+   protected <T> CompletableFuture<T> executeAsync(Call call) {
+
+      if (log.isTraceEnabled())
+         log.trace(this + " Executing (async) "+call);
+
+      CompletableFuture<CallResponse> future = new CompletableFuture<>();
+
+      registeredCalls.put(call, future);
+      if (readOptimization) call.setStateVersion(stateVersion);
+      Context context = register(call);
+      future.whenComplete((v, t) -> context.release(call.getCallerID(), call.getCallID()));
+      long sent = System.nanoTime();
+      int epoch = invalidations;
+
+      long start = System.nanoTime();
+      AtomicInteger attempts = new AtomicInteger();
+      future.whenComplete((v, t) -> {
+         if (t == null && attempts.get() == 1) // ignore ambiguous samples
+            rtts.add(System.nanoTime() - start);
+      });
+      attemptAsync(call, future, attempts);
+
+      return future.thenApply(response -> {
+         Object ret = response.getResult();
+         if (ret instanceof Throwable)
+            throw new CompletionException((Throwable) ret);
+         updateState(response, sent, epoch);
+         return (T) ret;
+      });
+
+   }
+
+   /**
+    * Sends <i>call</i>, then, as <i>execute</i> does, resends it if no response arrives before the timeout
+    * of <i>attempt</i>. Past the last attempt, the future of the call fails with a {@link TimeoutException}.
+    */
+   private void attemptAsync(Call call, CompletableFuture<CallResponse> future, AtomicInteger attempts) {
+      int attempt = attempts.incrementAndGet();
+      long timeout = retryPolicy.timeout(attempt, rtts.percentile(), isIdempotent);
+
+      doExecuteAsync(call).whenComplete((v, t) -> {
+         if (t != null) {
+            registeredCalls.remove(call);
+            future.completeExceptionally(t);
+         }
+      });
+
+      ScheduledFuture<?> expiry = timer.schedule(() -> {
+         if (future.isDone())
+            return;
+         log.warn(" Failed " + call + " after " + timeout + "ms");
+         if (attempt == retryPolicy.getMaxAttempts()) {
+            registeredCalls.remove(call);
+            future.completeExceptionally(new TimeoutException(call + " failed"));
+            return;
+         }
+         timer.schedule(() -> {
+            if (!future.isDone())
+               attemptAsync(call, future, attempts);
+         }, retryPolicy.backoff(attempt), TimeUnit.MILLISECONDS);
+      }, timeout, TimeUnit.MILLISECONDS);
+
+      future.whenComplete((v, t) -> expiry.cancel(false));
+   }
+
+   /**
+    * Registers <i>call</i> as in progress in the session of the caller, and attaches the watermark of the session,
+    * so that the servers may drop the responses to the calls before it.
+    */
+   private Context register(Call call) {
+      Context context = ContextManager.get();
+      context.register(call.getCallID());
+      call.setWatermark(context.watermark());
+      return context;
+   }
+
+   /**
+    * Keeps the state attached to <i>response</i>, if any, together with its version.
+    * The lease on the state is renewed from the time the call was <i>sent</i>,
+    * unless an invalidation occurred meanwhile.
+    */
+   protected void updateState(CallResponse response, long sent, int epoch) {
+      if (!readOptimization)
+         return;
+      Object received = response.getState();
+      if (received instanceof byte[]) { // unmarshalled once per version, outside the lock
+         received = response.getStateVersion() == stateVersion && state != null
+               ? null
+               : unmarshallState((byte[]) received);
+      }
+      synchronized (stateLock) {
+         if (received != null) {
+            this.state = received;
+            this.stateVersion = response.getStateVersion();
+         } else if (response.getStateVersion() == 0 || response.getStateVersion() != stateVersion) {
+            return;
+         }
+         if (epoch == invalidations)
+            leaseExpiry = sent + TimeUnit.MILLISECONDS.toNanos(lease);
+      }
+   }
+
+   private static Object unmarshallState(byte[] buf) {
+      try {
+         return stateMarshaller.objectFromByteBuffer(buf);
+      } catch (IOException | ClassNotFoundException e) {
+         log.warn("Unable to read the state of an object (" + e.getMessage() + ")");
+         return null;
+      }
+   }
+
+   /**
+    * An invocation of a proxy to be sent asynchronously (see {@link #invokeAsync(Runnable)}).
+    */
+   protected static class AsyncCall {
+
+      private final AbstractContainer container;
+      private CompletableFuture<?> future;
+
+      AsyncCall(AbstractContainer container) {
+         this.container = container;
+      }
+
+      public void setFuture(CompletableFuture<?> future) {
+         this.future = future;
+      }
+
+   }
+
+   protected static void failFuture(Call call, Throwable t) {
+      CompletableFuture future = registeredCalls.remove(call);
+      if (future != null)
+         future.completeExceptionally(t);
+   }
+
    protected static void handleFuture(CallResponse response){
       try {
 
-         if (!registeredCalls.containsKey(response.getCallID())) {
+         if (!registeredCalls.containsKey(response)) {
             log.trace("Future " + response.getCallID() + " ignored");
             return; // duplicate received
          }
 
-         CompletableFuture future = registeredCalls.get(response.getCallID());
+         CompletableFuture future = registeredCalls.get(response);
 
          assert (future!=null);
 
-         registeredCalls.remove(response.getCallID());
+         registeredCalls.remove(response);
 
          future.complete(response);
 
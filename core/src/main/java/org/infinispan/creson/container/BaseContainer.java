@@ -4,32 +4,42 @@ import javassist.util.proxy.MethodHandler;
 import javassist.util.proxy.ProxyFactory;
 import javassist.util.proxy.ProxyObject;
 import org.infinispan.commons.api.BasicCache;
-import org.infinispan.creson.ReadOnly;
 import org.infinispan.creson.object.BoxedReference;
 import org.infinispan.creson.object.Call;
 import org.infinispan.creson.object.CallConstruct;
 import org.infinispan.creson.object.CallInvoke;
 import org.infinispan.creson.object.CallResponse;
 import org.infinispan.creson.object.Reference;
+import org.infinispan.creson.utils.ClassMetadata;
 import org.infinispan.creson.utils.Context;
 import org.infinispan.creson.utils.ContextManager;
 import org.infinispan.creson.utils.ID;
 import org.infinispan.creson.utils.Reflection;
 
 import javax.persistence.Entity;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 /**
  * @author Pierre Sutra
  */
-public class BaseContainer extends AbstractContainer {
+public class BaseContainer extends AbstractContainer implements MethodHandler {
 
-    private boolean isOpen;
+    private volatile boolean isOpen;
     private Reference reference;
     private BasicCache<Reference, Call> cache;
 
+    // one proxy class per shared class, each proxy having its own handler;
+    // both are weakly referenced, so that the loader of a shared class can be unloaded (e.g., upon a redeployment)
+    private static final Map<Class<?>, WeakReference<Class<?>>> proxyClasses = new WeakHashMap<>();
+
     public BaseContainer(BasicCache cache, Class clazz, java.lang.Object key, boolean readOptimization, boolean isIdempotent,
                          boolean forceNew, java.lang.Object... initArgs)
             throws IllegalAccessException, InstantiationException,
@@ -39,12 +49,64 @@ public class BaseContainer extends AbstractContainer {
         this.isOpen = false;
 
         // build the proxy
-        MethodHandler handler = (self, m, proceed, args) -> {
+        this.proxy = Reflection.instantiate(proxyClassOf(clazz), initArgs);
+        ((ProxyObject) proxy).setHandler(this);
 
-            if (log.isTraceEnabled())
-                log.trace("Calling " + reference.getClazz() + "." + m.getName() + "(" + Arrays.toString(args) + ")");
+        // build reference and set key
+
+        // FIXME deprecated (linked to @Entity)
+        if (clazz.getAnnotation(Entity.class) != null) {
+            java.lang.reflect.Field field = ClassMetadata.of(clazz).getIdField();
+            if (clazz.getPackage().getName().startsWith("java.util.concurrent"))
+                throw new ClassFormatError("Not supported");
+            if (field == null)
+                throw new ClassFormatError("Missing key field");
+            if (key == null) {
+                key = field.get(proxy);
+                assert key != null : " field " + field.getName() + " is null for " + clazz;
+            } else {
+                field.set(proxy, key);
+            }
+
+        }
+
+        assert key != null;
+        this.reference = new Reference(clazz, key);
+        this.cache = cache;
+    }
+
+
+    /**
+     * @return the proxy class of <i>clazz</i>, created anew if it was reclaimed, i.e., once no proxy of
+     * <i>clazz</i> remains.
+     */
+    private static Class<?> proxyClassOf(Class<?> clazz) {
+        synchronized (proxyClasses) {
+            WeakReference<Class<?>> reference = proxyClasses.get(clazz);
+            Class<?> proxyClass = reference == null ? null : reference.get();
+            if (proxyClass == null) {
+                ProxyFactory fact = new ProxyFactory();
+                fact.setSuperclass(clazz);
+                fact.setFilter(methodFilter);
+                fact.setInterfaces(new Class[]{WriteReplace.class});
+                fact.setUseWriteReplace(false);
+                proxyClass = fact.createClass();
+                proxyClasses.put(clazz, new WeakReference<>(proxyClass));
+            }
+            return proxyClass;
+        }
+    }
+
+    @Override
+    public Object invoke(Object self, Method m, Method proceed, Object[] args) throws Throwable {
+
+        MethodDescriptor descriptor = MethodDescriptor.of(reference.getClazz(), m);
+
+        if (log.isTraceEnabled())
+            log.trace("Calling " + reference.getClazz() + "." + m.getName() + "(" + Arrays.toString(args) + ")");
 
-            if (m.getName().equals("equals")) {
+        switch (descriptor.getKind()) {
+            case EQUALS:
                 if (args[0] == null) {
                     return false;
                 } else if (args[0] == proxy) {
@@ -55,91 +117,84 @@ public class BaseContainer extends AbstractContainer {
                     return args[0].equals(reference); // FIXME might not be the most satisfying
                 }
                 return args[0].equals(proxy);
-            }
-
-            if (m.getName().equals("toString")){ // for debugging purposes
+            case TO_STRING: // for debugging purposes
                 return reference.toString();
-            }
-
-            if (m.getName().equals("hashCode")) {
+            case HASH_CODE:
                 return reference.hashCode();
-            }
-
-            if (m.getName().equals("writeReplace")) {
+            case WRITE_REPLACE:
                 open();
                 return new BoxedReference(reference);
-            }
-
-            if (!Reflection.isMethodSupported(reference.getClazz(), m)) {
-                throw new IllegalArgumentException("Unsupported method " + m.getName() + " in " + reference.getClazz());
-            }
-
-            if (this.readOptimization
-                    && state != null
-                    && (m.isAnnotationPresent(ReadOnly.class))) {
-                if (log.isTraceEnabled()) log.trace("local call: " + m.getName());
-                return Reflection.callObject(state, m.getName(), args);
-            } else {
-                if (log.isTraceEnabled())
-                    log.trace("remote call: " + m.getName() + ";reason: +"
-                            + "null state=" + new Boolean(state == null) + ", "
-                            + "isAnnotationPresent=" + new Boolean(m.isAnnotationPresent(ReadOnly.class)));
-            }
-
-
-            open();
+        }
 
-            Object ret = execute(
-                    new CallInvoke(
-                            reference,
-                            generateCallID(),
-                            m.getName(),
-                            args)
-            );
+        if (!descriptor.isSupported()) {
+            throw new IllegalArgumentException("Unsupported method " + m.getName() + " in " + reference.getClazz());
+        }
 
-            assert (m.getReturnType().equals(Void.TYPE) && ret == null) || Reflection.isCompatible(ret, m.getReturnType())
-                    : m.getReturnType() + " => " + ret + " [" + reference.getClazz() + "." + m.getName() + "()]";
+        AsyncCall async = takeAsyncCall();
+        if (async != null) {
+            async.setFuture(invokeAsync(descriptor.getId(), descriptor.getName(), args));
+            return descriptor.getDefaultValue();
+        }
 
-            return ret;
+        if (this.readOptimization
+                && hasLease()
+                && descriptor.isReadOnly()) {
+            if (log.isTraceEnabled()) log.trace("local call: " + m.getName());
+            return descriptor.invoke(state, args);
+        } else {
+            if (log.isTraceEnabled())
+                log.trace("remote call: " + m.getName() + ";reason: +"
+                        + "lease=" + hasLease() + ", "
+                        + "isAnnotationPresent=" + descriptor.isReadOnly());
+        }
 
-        };
 
-        ProxyFactory fact = new ProxyFactory();
-        fact.setSuperclass(clazz);
-        fact.setFilter(methodFilter);
-        fact.setInterfaces(new Class[]{WriteReplace.class});
-        fact.setUseWriteReplace(false);
-        this.proxy = Reflection.instantiate(fact.createClass(), initArgs);
-        ((ProxyObject) proxy).setHandler(handler);
+        Object ret = executeInvoke(descriptor, args);
 
-        // build reference and set key
+        assert descriptor.isReturnCompatible(ret)
+                : m.getReturnType() + " => " + ret + " [" + reference.getClazz() + "." + m.getName() + "()]";
 
-        // FIXME deprecated (linked to @Entity)
-        if (clazz.getAnnotation(Entity.class) != null) {
-            java.lang.reflect.Field field = Reference.getIDField(clazz);
-            if (clazz.getPackage().getName().startsWith("java.util.concurrent"))
-                throw new ClassFormatError("Not supported");
-            if (field == null)
-                throw new ClassFormatError("Missing key field");
-            if (key == null) {
-                field.setAccessible(true);
-                key = field.get(proxy);
-                assert key != null : " field " + field.getName() + " is null for " + clazz;
-            } else {
-                field.set(proxy, key);
-            }
+        return ret;
+    }
 
+    @Override
+    public void doExecute(Call call) {
+        if (batcher != null) {
+            batcher.enqueue(call);
+            return;
         }
-
-        assert key != null;
-        this.reference = new Reference(clazz, key);
-        this.cache = cache;
+        handleFuture((CallResponse) cache.put(reference, call));
     }
 
+    @Override
+    public CompletableFuture<Void> doExecuteAsync(Call call) {
+        if (batcher != null) {
+            batcher.enqueue(call);
+            return CompletableFuture.completedFuture(null);
+        }
+        return cache.putAsync(reference, call).thenAccept(response -> handleFuture((CallResponse) response));
+    }
 
     @Override
-    public void doExecute(Call call) {
-        handleFuture((CallResponse) cache.put(reference, call));
+    public <T> CompletableFuture<T> invokeAsync(String method, Object... args) throws Throwable {
+        int id;
+        try {
+            id = ClassMetadata.of(reference.getClazz()).findMethod(method, args).getId();
+        } catch (IllegalStateException e) {
+            id = -1; // reported by the server
+        }
+        return invokeAsync(id, method, args);
+    }
+
+    private <T> CompletableFuture<T> invokeAsync(int id, String method, Object[] args) throws Throwable {
+        open();
+        return executeAsync(
+                new CallInvoke(
+                        reference,
+                        generateCallID(),
+                        id,
+                        method,
+                        args));
     }
 
     @Override
@@ -162,10 +217,7 @@ public class BaseContainer extends AbstractContainer {
             if (log.isTraceEnabled())
                 log.trace(" Opening - "+this.toString());
 
-            CallConstruct construct = new CallConstruct(reference,
-                    generateCallID(), forceNew, initArgs, readOptimization, isIdempotent);
-
-            execute(construct);
+            execute(newConstruct());
 
             isOpen = true;
 
@@ -176,17 +228,80 @@ public class BaseContainer extends AbstractContainer {
 
     }
 
+    /**
+     * Invokes <i>method</i> remotely.
+     * The first invocation also carries the construction of the object, saving a round trip.
+     * This requires plain arguments, as marshalling a shared object opens it while this container is locked.
+     */
+    private Object executeInvoke(MethodDescriptor method, Object[] args) throws Throwable {
+
+        if (!isOpen && !isPlain(args)) {
+            open();
+        }
+
+        if (!isOpen) {
+            synchronized (this) {
+                if (!isOpen) {
+
+                    if (log.isTraceEnabled())
+                        log.trace(" Opening (w. " + method.getName() + ") - " + this.toString());
+
+                    Object ret;
+                    try {
+                        ret = execute(new CallInvoke(reference, generateCallID(), method.getId(), method.getName(), args, newConstruct()));
+                    } catch (TimeoutException e) {
+                        throw e; // the object might not exist
+                    } catch (Throwable t) {
+                        isOpen = true; // the object exists, yet the call failed
+                        throw t;
+                    }
+                    isOpen = true;
+                    return ret;
+
+                }
+            }
+        }
+
+        return execute(
+                new CallInvoke(
+                        reference,
+                        generateCallID(),
+                        method.getId(),
+                        method.getName(),
+                        args));
+    }
+
+    private static boolean isPlain(Object[] args) {
+        for (Object arg : args) {
+            if (arg != null
+                    && !(arg instanceof Number)
+                    && !(arg instanceof String)
+                    && !(arg instanceof Boolean)
+                    && !(arg instanceof Character)
+                    && !(arg instanceof Enum)
+                    && !(arg instanceof UUID)
+                    && !(arg.getClass().isArray() && arg.getClass().getComponentType().isPrimitive()))
+                return false;
+        }
+        return true;
+    }
+
+    private CallConstruct newConstruct() {
+        return new CallConstruct(reference,
+                generateCallID(), forceNew, initArgs, readOptimization, isIdempotent);
+    }
+
     public interface WriteReplace {
         java.lang.Object writeReplace() throws java.io.ObjectStreamException;
     }
 
-    private UUID generateCallID(){
+    private long generateCallID(){
         Context context = ContextManager.get();
-        UUID uuid = context.getGenerator().generate();
+        long callID = context.nextCallID();
         if (log.isTraceEnabled()) {
-            log.trace("generated " + uuid + " [" + context + "]");
+            log.trace("generated " + callID + " [" + context + "]");
         }
-        return uuid;
+        return callID;
     }
 
 }
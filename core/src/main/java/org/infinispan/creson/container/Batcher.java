@@ -0,0 +1,160 @@
+package org.infinispan.creson.container;
+
+import org.infinispan.commons.api.BasicCache;
+import org.infinispan.commons.logging.Log;
+import org.infinispan.commons.logging.LogFactory;
+import org.infinispan.creson.object.Call;
+import org.infinispan.creson.object.CallBatch;
+import org.infinispan.creson.object.CallGroup;
+import org.infinispan.creson.object.CallResponse;
+import org.infinispan.creson.object.Reference;
+import org.infinispan.creson.utils.ContextManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the calls pending at once to the shared objects of a cache into batches.
+ * A batch is sent when it holds <i>size</i> calls, or <i>window</i> microseconds after its first call.
+ * <p>
+ * In a batch, the calls to the same object form a {@link CallBatch}, which the replicas of that object apply
+ * in a single step. The calls to distinct objects are then sent together in a {@link CallGroup},
+ * which the server receiving it splits, each call reaching the owners of its object from there.
+ * <p>
+ * A batch is not split per owner: a HotRod client hashes the marshalled keys, whereas the servers, which store
+ * the keys as objects, distribute them by the hash of the objects; the client thus cannot locate an object.
+ *
+ * @author Pierre Sutra
+ */
+public class Batcher {
+
+    private static final Log log = LogFactory.getLog(Batcher.class);
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "creson-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final BasicCache<Reference, Call> cache;
+    private final int size;
+    private final long window;
+    private final List<Call> pending = new ArrayList<>();
+
+    /**
+     * @param size   max. amount of calls in a batch.
+     * @param window max. time (in microseconds) a call waits for a batch to fill in.
+     */
+    public Batcher(BasicCache<Reference, Call> cache, int size, long window) {
+        assert size > 1;
+        this.cache = cache;
+        this.size = size;
+        this.window = window;
+    }
+
+    public void enqueue(Call call) {
+        List<Call> batch = null;
+        synchronized (pending) {
+            pending.add(call);
+            if (pending.size() >= size) {
+                batch = drain();
+            } else if (pending.size() == 1) {
+                scheduler.schedule(this::flush, window, TimeUnit.MICROSECONDS);
+            }
+        }
+        if (batch != null)
+            send(batch);
+    }
+
+    private void flush() {
+        List<Call> batch;
+        synchronized (pending) {
+            batch = drain();
+        }
+        if (!batch.isEmpty())
+            send(batch);
+    }
+
+    private List<Call> drain() {
+        List<Call> batch = new ArrayList<>(pending);
+        pending.clear();
+        return batch;
+    }
+
+    private void send(List<Call> batch) {
+        Map<Reference, List<Call>> perReference = new LinkedHashMap<>();
+        for (Call call : batch) {
+            perReference.computeIfAbsent(call.getReference(), r -> new ArrayList<>()).add(call);
+        }
+
+        List<Call> calls = new ArrayList<>(perReference.size());
+        for (Map.Entry<Reference, List<Call>> entry : perReference.entrySet()) {
+            List<Call> same = entry.getValue();
+            Call call = same.size() == 1 ? same.get(0) : new CallBatch(entry.getKey(), nextCallID(), same);
+            call.setStateVersion(same.get(same.size() - 1).getStateVersion());
+            calls.add(call);
+        }
+
+        Call call = calls.size() == 1 ? calls.get(0) : new CallGroup(calls.get(0).getReference(), nextCallID(), calls);
+
+        if (log.isTraceEnabled())
+            log.trace(" Sending " + call);
+
+        cache.putAsync(call.getReference(), call).whenComplete((ret, t) -> {
+            if (t != null) {
+                fail(call, t);
+                return;
+            }
+            handle(call, (CallResponse) ret);
+        });
+    }
+
+    private static void handle(Call call, CallResponse response) {
+        if (call instanceof CallGroup || call instanceof CallBatch) {
+            if (response.getResult() instanceof Throwable) {
+                fail(call, (Throwable) response.getResult());
+                return;
+            }
+        }
+        if (call instanceof CallGroup) {
+            List<Call> calls = ((CallGroup) call).getCalls();
+            List<?> responses = (List<?>) response.getResult();
+            for (int i = 0; i < calls.size(); i++) {
+                handle(calls.get(i), (CallResponse) responses.get(i));
+            }
+        } else if (call instanceof CallBatch) {
+            for (Object o : (List<?>) response.getResult()) {
+                CallResponse r = (CallResponse) o;
+                r.setState(response.getState());
+                r.setStateVersion(response.getStateVersion());
+                AbstractContainer.handleFuture(r);
+            }
+        } else {
+            AbstractContainer.handleFuture(response);
+        }
+    }
+
+    private static void fail(Call call, Throwable t) {
+        if (call instanceof CallGroup) {
+            for (Call c : ((CallGroup) call).getCalls()) {
+                fail(c, t);
+            }
+        } else if (call instanceof CallBatch) {
+            for (Call c : ((CallBatch) call).getCalls()) {
+                AbstractContainer.failFuture(c, t);
+            }
+        } else {
+            AbstractContainer.failFuture(call, t);
+        }
+    }
+
+    private static long nextCallID() {
+        return ContextManager.get().nextCallID();
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.infinispan.creson.container;
+
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryExpired;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryModified;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryRemoved;
+import org.infinispan.client.hotrod.annotation.ClientCacheFailover;
+import org.infinispan.client.hotrod.annotation.ClientListener;
+import org.infinispan.client.hotrod.event.ClientCacheFailoverEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryExpiredEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryModifiedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryRemovedEvent;
+import org.infinispan.creson.object.Reference;
+
+import java.util.Map;
+
+/**
+ * Drops the lease of a container each time the server notifies that its object changed.
+ * Notifications concern all the objects in the cache, whether a container is leased or not.
+ *
+ * @author Pierre Sutra
+ */
+@ClientListener
+public class InvalidationListener {
+
+    private final Map<Reference, AbstractContainer> containers;
+
+    public InvalidationListener(Map<Reference, AbstractContainer> containers) {
+        this.containers = containers;
+    }
+
+    @ClientCacheEntryModified
+    public void onModified(ClientCacheEntryModifiedEvent<Object> event) {
+        invalidate(event.getKey());
+    }
+
+    @ClientCacheEntryRemoved
+    public void onRemoved(ClientCacheEntryRemovedEvent<Object> event) {
+        invalidate(event.getKey());
+    }
+
+    @ClientCacheEntryExpired
+    public void onExpired(ClientCacheEntryExpiredEvent<Object> event) {
+        invalidate(event.getKey());
+    }
+
+    @ClientCacheFailover
+    public void onFailover(ClientCacheFailoverEvent event) {
+        // notifications might have been lost
+        for (AbstractContainer container : containers.values()) {
+            container.invalidate();
+        }
+    }
+
+    private void invalidate(Object key) {
+        if (!(key instanceof Reference))
+            return;
+        AbstractContainer container = containers.get(key);
+        if (container != null)
+            container.invalidate();
+    }
+
+}
@@ -0,0 +1,148 @@
+package org.infinispan.creson.container;
+
+import org.infinispan.creson.utils.ClassMetadata;
+import org.infinispan.creson.utils.Reflection;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * What a proxy needs to know about a method of a shared class.
+ * A descriptor is computed once per (class, method), then looked up on every call.
+ * The public methods are described, and called, by the {@link ClassMetadata} of the class.
+ *
+ * @author Pierre Sutra
+ */
+public class MethodDescriptor {
+
+    public enum Kind {EQUALS, TO_STRING, HASH_CODE, WRITE_REPLACE, INVOKE}
+
+    private static final ClassValue<Table> tables = new ClassValue<Table>() {
+        @Override
+        protected Table computeValue(Class<?> clazz) {
+            return new Table(clazz);
+        }
+    };
+
+    public static MethodDescriptor of(Class clazz, Method method) {
+        return tables.get(clazz).get(method);
+    }
+
+    private final Method method;
+    private final ClassMetadata.Invocable invocable;
+    private final Kind kind;
+    private final boolean isSupported;
+    private final Class<?> returnType;
+    private final Object defaultValue;
+
+    private MethodDescriptor(Class clazz, Method method) {
+        this.method = method;
+        this.invocable = ClassMetadata.of(clazz).invocableOf(method);
+        this.isSupported = Reflection.isMethodSupported(clazz, method);
+        this.returnType = method.getReturnType();
+        this.defaultValue = returnType.isPrimitive() && returnType != Void.TYPE
+                ? Array.get(Array.newInstance(returnType, 1), 0)
+                : null;
+        switch (method.getName()) {
+            case "equals":
+                kind = Kind.EQUALS;
+                break;
+            case "toString":
+                kind = Kind.TO_STRING;
+                break;
+            case "hashCode":
+                kind = Kind.HASH_CODE;
+                break;
+            case "writeReplace":
+                kind = Kind.WRITE_REPLACE;
+                break;
+            default:
+                kind = Kind.INVOKE;
+        }
+    }
+
+    public String getName() {
+        return method.getName();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the identifier of this method in the {@link ClassMetadata} of its class, or -1 if it has none.
+     */
+    public int getId() {
+        return invocable == null ? -1 : invocable.getId();
+    }
+
+    /**
+     * @return the default value of the return type of this method, e.g., 0 for an int.
+     */
+    public Object getDefaultValue() {
+        return defaultValue;
+    }
+
+    public boolean isSupported() {
+        return isSupported;
+    }
+
+    public boolean isReadOnly() {
+        return invocable != null && invocable.isReadOnly();
+    }
+
+    /**
+     * Calls this method on <i>target</i> locally, reporting failures as {@link Method#invoke} does.
+     */
+    public Object invoke(Object target, Object[] args) throws InvocationTargetException, IllegalAccessException {
+        if (invocable == null)
+            throw new IllegalAccessException(method + " is not a public method of " + target.getClass());
+        return invocable.invoke(target, args);
+    }
+
+    /**
+     * @param ret a value returned by a call to this method
+     * @return true if <i>ret</i> may be returned by this method.
+     */
+    public boolean isReturnCompatible(Object ret) {
+        try {
+            return (returnType == Void.TYPE && ret == null) || Reflection.isCompatible(ret, returnType);
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MethodDescriptor[" + method.getName() + "#" + getId() + "," + kind + "]";
+    }
+
+    private static class Table {
+
+        private final Class clazz;
+        private final ConcurrentMap<Method, MethodDescriptor> descriptors = new ConcurrentHashMap<>();
+
+        Table(Class clazz) {
+            this.clazz = clazz;
+        }
+
+        MethodDescriptor get(Method method) {
+            MethodDescriptor descriptor = descriptors.get(method);
+            if (descriptor == null) {
+                synchronized (this) {
+                    descriptor = descriptors.get(method);
+                    if (descriptor == null) {
+                        descriptor = new MethodDescriptor(clazz, method);
+                        descriptors.put(method, descriptor);
+                    }
+                }
+            }
+            return descriptor;
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.infinispan.creson.container;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.infinispan.creson.container.AbstractContainer.MAX_ATTEMPTS;
+import static org.infinispan.creson.container.AbstractContainer.TTIMEOUT_TIME;
+
+/**
+ * How long a container waits for the response to a call, and how it retries the call.
+ * <p>
+ * The timeout of a call is a multiple of a percentile of the round-trip times observed for the object,
+ * bounded by <i>minTimeout</i> and <i>maxTimeout</i>, and it doubles at each attempt.
+ * The last attempt always waits <i>maxTimeout</i>.
+ * Between two attempts, the container sleeps a random amount of time ("full jitter") whose bound
+ * grows exponentially from <i>minBackoff</i> to <i>maxBackoff</i>.
+ * <p>
+ * As a call may be executed more than once when it is retried early, adaptive timeouts only apply
+ * to idempotent objects. Other objects always wait <i>maxTimeout</i>.
+ *
+ * @author Pierre Sutra
+ */
+public class RetryPolicy {
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(MAX_ATTEMPTS, 10, TTIMEOUT_TIME, 0.99, 2, 1, 100);
+
+    private final int maxAttempts;
+    private final long minTimeout;
+    private final long maxTimeout;
+    private final double percentile;
+    private final double multiplier;
+    private final long minBackoff;
+    private final long maxBackoff;
+
+    /**
+     * @param maxAttempts max. amount of attempts for a call
+     * @param minTimeout  lower bound on the timeout (in ms)
+     * @param maxTimeout  upper bound on the timeout (in ms)
+     * @param percentile  the percentile of the round-trip times used to compute the timeout, e.g., 0.99
+     * @param multiplier  the timeout is this multiple of the percentile
+     * @param minBackoff  bound on the backoff after the first attempt (in ms)
+     * @param maxBackoff  upper bound on the backoff (in ms)
+     */
+    public RetryPolicy(int maxAttempts, long minTimeout, long maxTimeout, double percentile, double multiplier,
+                       long minBackoff, long maxBackoff) {
+        if (maxAttempts < 1 || minTimeout > maxTimeout || percentile <= 0 || percentile > 1 || minBackoff > maxBackoff)
+            throw new IllegalArgumentException("Invalid retry policy");
+        this.maxAttempts = maxAttempts;
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+        this.percentile = percentile;
+        this.multiplier = multiplier;
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * @param attempt  the attempt, starting at 1
+     * @param rtt      the percentile of the round-trip times (in ns), or a negative value if unknown
+     * @param adaptive whether the timeout may be lower than <i>maxTimeout</i>
+     * @return the timeout of <i>attempt</i> (in ms)
+     */
+    public long timeout(int attempt, long rtt, boolean adaptive) {
+        if (!adaptive || rtt < 0 || attempt >= maxAttempts)
+            return maxTimeout;
+        long timeout = Math.max(minTimeout, (long) (multiplier * rtt / 1000000));
+        timeout = timeout << Math.min(attempt - 1, 30);
+        return Math.min(maxTimeout, timeout);
+    }
+
+    /**
+     * @param attempt the attempt that failed, starting at 1
+     * @return how long to wait before the next attempt (in ms)
+     */
+    public long backoff(int attempt) {
+        long bound = Math.min(maxBackoff, minBackoff << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy[attempts=" + maxAttempts + ", timeout=" + minTimeout + ".." + maxTimeout
+                + "ms, p" + (percentile * 100) + "x" + multiplier + ", backoff=" + minBackoff + ".." + maxBackoff + "ms]";
+    }
+
+}
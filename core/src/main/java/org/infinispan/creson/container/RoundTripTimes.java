@@ -0,0 +1,47 @@
+package org.infinispan.creson.container;
+
+import java.util.Arrays;
+
+/**
+ * The round-trip times of the last calls to an object.
+ * The percentile is recomputed every {@link #REFRESH} samples, so that reading it is cheap.
+ *
+ * @author Pierre Sutra
+ */
+public class RoundTripTimes {
+
+    private static final int SAMPLES = 64;
+    private static final int REFRESH = 16;
+
+    private final double percentile;
+    private final long[] samples = new long[SAMPLES];
+    private final long[] sorted = new long[SAMPLES];
+    private int count;
+    private volatile long value = -1;
+
+    public RoundTripTimes(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * @param rtt a round-trip time (in ns)
+     */
+    public synchronized void add(long rtt) {
+        samples[count % SAMPLES] = rtt;
+        count++;
+        if (count % REFRESH == 0 || count < REFRESH) {
+            int size = Math.min(count, SAMPLES);
+            System.arraycopy(samples, 0, sorted, 0, size);
+            Arrays.sort(sorted, 0, size);
+            value = sorted[Math.min(size - 1, (int) Math.ceil(percentile * size) - 1)];
+        }
+    }
+
+    /**
+     * @return the percentile of the round-trip times (in ns), or -1 if no call completed yet.
+     */
+    public long percentile() {
+        return value;
+    }
+
+}
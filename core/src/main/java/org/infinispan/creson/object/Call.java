@@ -1,5 +1,6 @@
 package org.infinispan.creson.object;
 
+import org.infinispan.creson.utils.ClassMetadata;
 import org.infinispan.creson.utils.ContextManager;
 
 import java.io.Externalizable;
@@ -7,19 +8,26 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
+import static org.infinispan.creson.utils.VarInt.readVarLong;
+import static org.infinispan.creson.utils.VarInt.writeVarLong;
+
 /**
+ * A call is identified by the session of its caller and its (increasing) sequence number in that session.
+ *
  * @author Pierre Sutra
  */
 public class Call implements Externalizable {
 
-   private java.util.UUID callerID;
-   private java.util.UUID callID;
+   private long callerID;
+   private long callID;
    private Reference reference;
+   private long stateVersion;
+   private long watermark;
 
    @Deprecated
    public Call(){}
 
-   public Call(Reference reference, java.util.UUID callID){
+   public Call(Reference reference, long callID){
       this(reference, ContextManager.get().getCallerID(),callID);
    }
 
@@ -27,17 +35,17 @@ public class Call implements Externalizable {
       this(reference, call.callerID,call.callID);
    }
 
-   private Call(Reference reference, java.util.UUID callerID, java.util.UUID callID){
+   private Call(Reference reference, long callerID, long callID){
       this.callerID = callerID;
       this.callID = callID;
       this.reference = reference;
    }
 
-   public java.util.UUID getCallerID(){
+   public long getCallerID(){
       return callerID;
    }
 
-   public java.util.UUID getCallID(){
+   public long getCallID(){
       return callID;
    }
 
@@ -45,6 +53,37 @@ public class Call implements Externalizable {
       return reference;
    }
 
+   /**
+    * @return the size from which the byte arrays carried by this call are compressed (0 for never).
+    */
+   protected int getCompressionThreshold() {
+      return reference == null ? 0 : ClassMetadata.of(reference.getClazz()).getCompressionThreshold();
+   }
+
+   /**
+    * @return the version of the state of the object held by the caller (0 if none),
+    * or, in a response, the version of the state of the object after the call.
+    */
+   public long getStateVersion() {
+      return stateVersion;
+   }
+
+   public void setStateVersion(long stateVersion) {
+      this.stateVersion = stateVersion;
+   }
+
+   /**
+    * @return the watermark of the session of the caller when the call was sent (0 if none):
+    * the caller received the responses to all its calls with a lower identifier.
+    */
+   public long getWatermark() {
+      return watermark;
+   }
+
+   public void setWatermark(long watermark) {
+      this.watermark = watermark;
+   }
+
    @Override
    public String toString(){
       return reference.toString();
@@ -55,26 +94,31 @@ public class Call implements Externalizable {
       if (this == o) return true;
       if (o == null || !(o instanceof Call)) return false;
       Call call = (Call) o;
-      return callID.equals(call.callID);
+      return callID == call.callID && callerID == call.callerID;
    }
 
    @Override
    public int hashCode(){
-      return callID.hashCode();
+      return Long.hashCode(callerID * 31 + callID);
    }
 
    @Override
    public void writeExternal(ObjectOutput objectOutput) throws IOException {
-      objectOutput.writeObject(callerID);
-      objectOutput.writeObject(callID);
+      objectOutput.writeLong(callerID);
+      writeVarLong(objectOutput, callID);
       objectOutput.writeObject(reference);
+      writeVarLong(objectOutput, stateVersion);
+      writeVarLong(objectOutput, watermark == 0 ? 0 : callID - watermark + 1); // small, as relative to the call
    }
 
    @Override
    public void readExternal(ObjectInput objectInput) throws IOException, ClassNotFoundException {
-      callerID = (java.util.UUID) objectInput.readObject();
-      callID = (java.util.UUID)  objectInput.readObject();
+      callerID = objectInput.readLong();
+      callID = readVarLong(objectInput);
       reference = (Reference) objectInput.readObject();
+      stateVersion = readVarLong(objectInput);
+      long distance = readVarLong(objectInput);
+      watermark = distance == 0 ? 0 : callID - distance + 1;
    }
 
 
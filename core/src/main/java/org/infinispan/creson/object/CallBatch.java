@@ -0,0 +1,75 @@
+package org.infinispan.creson.object;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.infinispan.creson.utils.VarInt.readVarInt;
+import static org.infinispan.creson.utils.VarInt.writeVarInt;
+
+/**
+ * A sequence of calls to the same object, executed in order in a single step.
+ * The result of the response to a batch is the list of the responses to its calls.
+ *
+ * @author Pierre Sutra
+ */
+public class CallBatch extends Call {
+
+    private List<Call> calls;
+    private boolean mayPark;
+
+    @Deprecated
+    public CallBatch() {
+    }
+
+    public CallBatch(Reference reference, long callID, List<Call> calls) {
+        this(reference, callID, calls, false);
+    }
+
+    /**
+     * @param mayPark whether the calls of the batch that wait for a notification are parked,
+     *                instead of blocking the ones that follow.
+     */
+    public CallBatch(Reference reference, long callID, List<Call> calls, boolean mayPark) {
+        super(reference, callID);
+        this.calls = calls;
+        this.mayPark = mayPark;
+    }
+
+    public List<Call> getCalls() {
+        return calls;
+    }
+
+    public boolean mayPark() {
+        return mayPark;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + "-BATCH-" + calls.size();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput objectOutput) throws IOException {
+        super.writeExternal(objectOutput);
+        writeVarInt(objectOutput, calls.size());
+        for (Call call : calls) {
+            objectOutput.writeObject(call);
+        }
+        objectOutput.writeBoolean(mayPark);
+    }
+
+    @Override
+    public void readExternal(ObjectInput objectInput) throws IOException, ClassNotFoundException {
+        super.readExternal(objectInput);
+        int size = readVarInt(objectInput);
+        calls = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            calls.add((Call) objectInput.readObject());
+        }
+        mayPark = objectInput.readBoolean();
+    }
+
+}
@@ -1,11 +1,19 @@
 package org.infinispan.creson.object;
 
+import org.infinispan.creson.utils.ClassMetadata;
+
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
-import java.util.UUID;
+
+import static org.infinispan.creson.utils.Encoding.readValues;
+import static org.infinispan.creson.utils.Encoding.writeValues;
 
 /**
+ * The creation of an object.
+ * It carries the {@link ClassMetadata#getSchema() schema} of the class at the caller, which the server checks
+ * before accepting the method identifiers of the later calls.
+ *
  * @author Pierre Sutra
  */
 public class CallConstruct extends Call {
@@ -14,17 +22,19 @@ public class CallConstruct extends Call {
     private boolean readOptimization;
     private boolean isIdempotent;
     private Object[] initArgs;
+    private int schema;
 
     @Deprecated
     public CallConstruct() {
     }
 
-    public CallConstruct(Reference reference, UUID callID, boolean forceNew, Object[] initargs, boolean readOptimization, boolean isIdempotent) {
+    public CallConstruct(Reference reference, long callID, boolean forceNew, Object[] initargs, boolean readOptimization, boolean isIdempotent) {
         super(reference, callID);
         this.forceNew = forceNew;
         this.initArgs = initargs;
         this.readOptimization = readOptimization;
         this.isIdempotent = isIdempotent;
+        this.schema = ClassMetadata.of(reference.getClazz()).getSchema();
     }
 
     @Override
@@ -46,13 +56,18 @@ public class CallConstruct extends Call {
         return initArgs;
     }
 
+    public int getSchema() {
+        return schema;
+    }
+
     @Override
     public void writeExternal(ObjectOutput objectOutput) throws IOException {
         super.writeExternal(objectOutput);
         objectOutput.writeBoolean(forceNew);
         objectOutput.writeBoolean(readOptimization);
         objectOutput.writeBoolean(isIdempotent);
-        objectOutput.writeObject(initArgs);
+        writeValues(objectOutput, initArgs, getCompressionThreshold());
+        objectOutput.writeInt(schema);
     }
 
     @Override
@@ -61,7 +76,8 @@ public class CallConstruct extends Call {
         forceNew = objectInput.readBoolean();
         readOptimization = objectInput.readBoolean();
         isIdempotent = objectInput.readBoolean();
-        initArgs = (Object[]) objectInput.readObject();
+        initArgs = readValues(objectInput);
+        schema = objectInput.readInt();
     }
 
 }
@@ -0,0 +1,64 @@
+package org.infinispan.creson.object;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.infinispan.creson.utils.VarInt.readVarInt;
+import static org.infinispan.creson.utils.VarInt.writeVarInt;
+
+/**
+ * Calls to distinct objects, sent in a single message.
+ * It is never stored: the server receiving a group splits it, and executes each call on its own object
+ * (see <i>GroupInterceptor</i>).
+ * The result of the response to a group is the list of the responses to its calls, in order.
+ *
+ * @author Pierre Sutra
+ */
+public class CallGroup extends Call {
+
+    private List<Call> calls;
+
+    @Deprecated
+    public CallGroup() {
+    }
+
+    /**
+     * @param reference the reference of one of the calls, to route the group.
+     */
+    public CallGroup(Reference reference, long callID, List<Call> calls) {
+        super(reference, callID);
+        this.calls = calls;
+    }
+
+    public List<Call> getCalls() {
+        return calls;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + "-GROUP-" + calls.size();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput objectOutput) throws IOException {
+        super.writeExternal(objectOutput);
+        writeVarInt(objectOutput, calls.size());
+        for (Call call : calls) {
+            objectOutput.writeObject(call);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput objectInput) throws IOException, ClassNotFoundException {
+        super.readExternal(objectInput);
+        int size = readVarInt(objectInput);
+        calls = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            calls.add((Call) objectInput.readObject());
+        }
+    }
+
+}
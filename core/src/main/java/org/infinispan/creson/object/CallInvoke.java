@@ -1,51 +1,121 @@
 package org.infinispan.creson.object;
 
+import org.infinispan.creson.utils.ClassMetadata;
+
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
-import java.util.UUID;
+
+import static org.infinispan.creson.utils.Encoding.readValues;
+import static org.infinispan.creson.utils.Encoding.writeValues;
+import static org.infinispan.creson.utils.VarInt.readVarInt;
+import static org.infinispan.creson.utils.VarInt.writeVarInt;
 
 /**
+ * The invocation of a method, designated by its identifier in the {@link ClassMetadata} of the class when known,
+ * and by its name otherwise.
+ * An identifier travels with the schema of the class at the caller, as the identifiers of the methods are only
+ * meaningful to the servers that have the same schema.
+ *
  * @author Pierre Sutra
  */
 public class CallInvoke extends Call implements Externalizable{
 
+   public int methodId = -1;
+   public int schema;
    public String method;
    public Object[] arguments;
+   private CallConstruct construct;
 
    @Deprecated
    public CallInvoke(){}
 
-   public CallInvoke(Reference reference, UUID callID, String m, Object[] args) {
+   public CallInvoke(Reference reference, long callID, String m, Object[] args) {
       super(reference, callID);
       method = m;
       arguments = args;
 
    }
 
+   /**
+    * A call to the method <i>id</i> of the class of <i>reference</i>, named <i>m</i>.
+    * The name is not sent.
+    */
+   public CallInvoke(Reference reference, long callID, int id, String m, Object[] args) {
+      this(reference, callID, m, args);
+      methodId = id;
+      if (id >= 0)
+         schema = ClassMetadata.of(reference.getClazz()).getSchema();
+   }
+
+   public CallInvoke(Reference reference, long callID, int id, String m, Object[] args, CallConstruct construct) {
+      this(reference, callID, id, m, args);
+      this.construct = construct;
+   }
+
+   /**
+    * A call that first creates the object if needed, as <i>construct</i> does, then invokes <i>m</i> on it.
+    */
+   public CallInvoke(Reference reference, long callID, String m, Object[] args, CallConstruct construct) {
+      this(reference, callID, m, args);
+      this.construct = construct;
+   }
+
+   public CallConstruct getConstruct() {
+      return construct;
+   }
+
+   /**
+    * @return this call, without the creation of the object.
+    */
+   public CallInvoke withoutConstruct() {
+      if (construct == null)
+         return this;
+      CallInvoke invoke = new CallInvoke(getReference(), this);
+      invoke.methodId = methodId;
+      invoke.schema = schema;
+      invoke.method = method;
+      invoke.arguments = arguments;
+      return invoke;
+   }
+
+   private CallInvoke(Reference reference, Call call) {
+      super(reference, call);
+   }
+
    @Override
    public String toString(){
       String args = " ";
       for(Object a : arguments){
          args+=(a==null?"null":a.toString())+" ";
       }
-      return super.toString()+"-INV-"+method+ "("+args+")";
+      return super.toString()+"-INV-"+(method != null ? method : "#"+methodId)+ "("+args+")";
    }
 
 
    @Override
    public void writeExternal(ObjectOutput objectOutput) throws IOException {
       super.writeExternal(objectOutput);
-      objectOutput.writeObject(method);
-      objectOutput.writeObject(arguments);
+      writeVarInt(objectOutput, methodId + 1);
+      if (methodId < 0)
+         objectOutput.writeUTF(method);
+      else
+         objectOutput.writeInt(schema);
+      writeValues(objectOutput, arguments, getCompressionThreshold());
+      objectOutput.writeObject(construct);
    }
 
    @Override
    public void readExternal(ObjectInput objectInput) throws IOException, ClassNotFoundException {
       super.readExternal(objectInput);
-      method = (String) objectInput.readObject();
-      arguments = (Object[]) objectInput.readObject();
+      methodId = readVarInt(objectInput) - 1;
+      if (methodId < 0)
+         method = objectInput.readUTF();
+      else
+         schema = objectInput.readInt();
+      arguments = readValues(objectInput);
+      construct = (CallConstruct) objectInput.readObject();
    }
 
 }
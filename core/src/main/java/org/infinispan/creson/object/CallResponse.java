@@ -4,6 +4,11 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
+import static org.infinispan.creson.utils.Encoding.readValue;
+import static org.infinispan.creson.utils.Encoding.writeValue;
+import static org.infinispan.creson.utils.VarInt.readVarInt;
+import static org.infinispan.creson.utils.VarInt.writeVarInt;
+
 
 /**
  * @author Pierre Sutra
@@ -15,6 +20,8 @@ public class CallResponse extends Call {
 
     private Object result;
     private Object state;
+    private boolean parked;
+    private int notified;
 
     @Deprecated
     public CallResponse() {
@@ -41,6 +48,28 @@ public class CallResponse extends Call {
         this.state = state;
     }
 
+    /**
+     * @return true if the call waits for a notification, and thus has to be executed anew.
+     */
+    public boolean isParked() {
+        return parked;
+    }
+
+    public void setParked(boolean parked) {
+        this.parked = parked;
+    }
+
+    /**
+     * @return how many waiters the call notified ({@link org.infinispan.creson.utils.Parking#ALL} for all).
+     */
+    public int getNotified() {
+        return notified;
+    }
+
+    public void setNotified(int notified) {
+        this.notified = notified;
+    }
+
     @Override
     public String toString() {
         return super.toString()+"-RESP-("+getCallID()+")" + result + "]";
@@ -49,14 +78,19 @@ public class CallResponse extends Call {
     @Override
     public void writeExternal(ObjectOutput objectOutput) throws IOException {
         super.writeExternal(objectOutput);
-        objectOutput.writeObject(state);
-        objectOutput.writeObject(result);
+        int threshold = getCompressionThreshold();
+        writeValue(objectOutput, state, threshold);
+        writeValue(objectOutput, result, threshold);
+        objectOutput.writeBoolean(parked);
+        writeVarInt(objectOutput, notified);
     }
 
     @Override
     public void readExternal(ObjectInput objectInput) throws IOException, ClassNotFoundException {
         super.readExternal(objectInput);
-        state = objectInput.readObject();
-        result = objectInput.readObject();
+        state = readValue(objectInput);
+        result = readValue(objectInput);
+        parked = objectInput.readBoolean();
+        notified = readVarInt(objectInput);
     }
 }
@@ -0,0 +1,91 @@
+package org.infinispan.creson.object;
+
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * The externalizers of the calls and the references, with fixed identifiers.
+ * Unlike plain {@link Externalizable}s, they are written without a class descriptor.
+ * They are registered with the marshaller of the cache managers (between the servers),
+ * and with {@link org.infinispan.creson.utils.CresonMarshaller} (between the HotRod clients and the servers).
+ *
+ * @author Pierre Sutra
+ */
+public class Externalizers {
+
+    public static final int FIRST = 2900;
+
+    public static final int REFERENCE = FIRST;
+    public static final int BOXED_REFERENCE = FIRST + 1;
+    public static final int CALL = FIRST + 2;
+    public static final int CALL_INVOKE = FIRST + 3;
+    public static final int CALL_CONSTRUCT = FIRST + 4;
+    public static final int CALL_BATCH = FIRST + 5;
+    public static final int CALL_RESPONSE = FIRST + 6;
+    public static final int CALL_GROUP = FIRST + 7;
+
+    private static final List<AdvancedExternalizer<?>> ALL = Collections.unmodifiableList(Arrays.asList(
+            new Of<>(REFERENCE, Reference.class, Reference::new),
+            new Of<>(BOXED_REFERENCE, BoxedReference.class, BoxedReference::new),
+            new Of<>(CALL, Call.class, Call::new),
+            new Of<>(CALL_INVOKE, CallInvoke.class, CallInvoke::new),
+            new Of<>(CALL_CONSTRUCT, CallConstruct.class, CallConstruct::new),
+            new Of<>(CALL_BATCH, CallBatch.class, CallBatch::new),
+            new Of<>(CALL_RESPONSE, CallResponse.class, CallResponse::new),
+            new Of<>(CALL_GROUP, CallGroup.class, CallGroup::new)));
+
+    /**
+     * @return the externalizers, by increasing identifier from {@link #FIRST}.
+     */
+    public static List<AdvancedExternalizer<?>> all() {
+        return ALL;
+    }
+
+    private static class Of<T extends Externalizable> implements AdvancedExternalizer<Object> {
+
+        private final int id;
+        private final Class<T> clazz;
+        private final Supplier<T> factory;
+
+        Of(int id, Class<T> clazz, Supplier<T> factory) {
+            this.id = id;
+            this.clazz = clazz;
+            this.factory = factory;
+        }
+
+        @Override
+        public Set<Class<?>> getTypeClasses() {
+            return Collections.singleton(clazz);
+        }
+
+        @Override
+        public Integer getId() {
+            return id;
+        }
+
+        @Override
+        public void writeObject(ObjectOutput output, Object object) throws IOException {
+            ((Externalizable) object).writeExternal(output);
+        }
+
+        @Override
+        public Object readObject(ObjectInput input) throws IOException, ClassNotFoundException {
+            T object = factory.get();
+            object.readExternal(input);
+            if (object instanceof BoxedReference) // a proxy, once read
+                return ((BoxedReference) object).readResolve();
+            return object;
+        }
+
+    }
+
+}
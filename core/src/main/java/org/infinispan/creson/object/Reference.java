@@ -1,15 +1,20 @@
 package org.infinispan.creson.object;
 
 import org.infinispan.creson.Shared;
+import org.infinispan.creson.utils.ClassMetadata;
 import org.infinispan.creson.utils.Reflection;
 
-import javax.persistence.Id;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.lang.reflect.Field;
 
+import static org.infinispan.creson.utils.Encoding.readClass;
+import static org.infinispan.creson.utils.Encoding.readValue;
+import static org.infinispan.creson.utils.Encoding.writeClass;
+import static org.infinispan.creson.utils.Encoding.writeValue;
+
 /**
  * @author Pierre Sutra
  */
@@ -19,17 +24,7 @@ public class Reference<T> implements Externalizable {
 
     @Deprecated
     public static Field getIDField(Class<?> clazz) {
-        Field field = null;
-
-        for (java.lang.reflect.Field f : Reflection.getAllFields(clazz)) {
-            f.setAccessible(true);
-            if (f.getAnnotation(Id.class) != null) {
-                field = f;
-                break;
-            }
-        }
-
-        return field;
+        return ClassMetadata.of(clazz).getIdField();
     }
 
 
@@ -43,7 +38,6 @@ public class Reference<T> implements Externalizable {
         if (field == null)
             throw new ClassFormatError("Missing key in "+clazz+" (fields= "
                     + Reflection.getAllFields(clazz)+")");
-        field.setAccessible(true);
         return new Reference<>(clazz,field.get(object));
 
     }
@@ -99,14 +93,14 @@ public class Reference<T> implements Externalizable {
 
     @Override
     public void writeExternal(ObjectOutput objectOutput) throws IOException {
-        objectOutput.writeObject(clazz);
-        objectOutput.writeObject(key);
+        writeClass(objectOutput, clazz);
+        writeValue(objectOutput, key);
     }
 
     @Override
     public void readExternal(ObjectInput objectInput) throws IOException, ClassNotFoundException {
-        clazz = (Class) objectInput.readObject();
-        key = objectInput.readObject();
+        clazz = (Class<T>) readClass(objectInput);
+        key = readValue(objectInput);
     }
 
 }
@@ -0,0 +1,310 @@
+package org.infinispan.creson.utils;
+
+import org.infinispan.creson.Commutative;
+import org.infinispan.creson.Compression;
+import org.infinispan.creson.Parkable;
+import org.infinispan.creson.ReadOnly;
+
+import javax.persistence.Id;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the reflection utilities need to know about a class: its public methods, its constructors,
+ * its key field, whether it has read-only or commutative methods, and its compression threshold.
+ * The metadata of a class is computed once, then looked up without allocating.
+ * <p>
+ * The public methods are numbered by signature, so that a client and a server agreeing on the {@link #getSchema()
+ * schema} of a class designate a method by its identifier.
+ *
+ * @author Pierre Sutra
+ */
+public class ClassMetadata {
+
+    private static final ClassValue<ClassMetadata> metadata = new ClassValue<ClassMetadata>() {
+        @Override
+        protected ClassMetadata computeValue(Class<?> clazz) {
+            return new ClassMetadata(clazz);
+        }
+    };
+
+    private static final Map<Class<?>, Class<?>> wrappers = new IdentityHashMap<>();
+
+    static {
+        wrappers.put(boolean.class, Boolean.class);
+        wrappers.put(byte.class, Byte.class);
+        wrappers.put(char.class, Character.class);
+        wrappers.put(short.class, Short.class);
+        wrappers.put(int.class, Integer.class);
+        wrappers.put(long.class, Long.class);
+        wrappers.put(float.class, Float.class);
+        wrappers.put(double.class, Double.class);
+        wrappers.put(void.class, Void.class);
+    }
+
+    public static ClassMetadata of(Class<?> clazz) {
+        return metadata.get(clazz);
+    }
+
+    private final Class<?> clazz;
+    private final Map<String, Invocable[]> methods = new HashMap<>();
+    private final Invocable[] table;
+    private final Map<Method, Invocable> invocables = new HashMap<>();
+    private final int schema;
+    private final Creator[] constructors;
+    private final Field idField;
+    private final boolean hasReadOnlyMethods;
+    private final boolean hasCommutativeMethods;
+    private final int compressionThreshold;
+
+    private ClassMetadata(Class<?> clazz) {
+        this.clazz = clazz;
+
+        Method[] publics = clazz.getMethods(); // only public methods (inherited and not)
+        Arrays.sort(publics, Comparator.comparing(ClassMetadata::signature));
+        Map<String, List<Invocable>> overloads = new HashMap<>();
+        boolean readOnly = false;
+        boolean commutative = false;
+        int hash = 0;
+        this.table = new Invocable[publics.length];
+        for (int id = 0; id < publics.length; id++) {
+            Method m = publics[id];
+            Invocable invocable = new Invocable(m, id, clazz.isAnnotationPresent(Parkable.class));
+            table[id] = invocable;
+            invocables.put(m, invocable);
+            overloads.computeIfAbsent(m.getName(), k -> new ArrayList<>()).add(invocable);
+            readOnly |= invocable.isReadOnly();
+            commutative |= invocable.isCommutative();
+            hash = 31 * hash + signature(m).hashCode();
+        }
+        this.schema = hash;
+        for (Map.Entry<String, List<Invocable>> entry : overloads.entrySet()) {
+            methods.put(entry.getKey(), entry.getValue().toArray(new Invocable[0]));
+        }
+        this.hasReadOnlyMethods = readOnly;
+        this.hasCommutativeMethods = commutative;
+
+        Constructor[] declared = clazz.getDeclaredConstructors();
+        this.constructors = new Creator[declared.length];
+        for (int i = 0; i < declared.length; i++) {
+            constructors[i] = new Creator(declared[i]);
+        }
+
+        Field field = null;
+        for (Field f : Reflection.getAllFields(clazz)) {
+            if (f.getAnnotation(Id.class) != null) {
+                f.setAccessible(true);
+                field = f;
+                break;
+            }
+        }
+        this.idField = field;
+
+        Compression compression = clazz.getAnnotation(Compression.class);
+        this.compressionThreshold = compression != null ? compression.threshold() : Encoding.DEFAULT_COMPRESSION_THRESHOLD;
+    }
+
+    /**
+     * @return the public method <i>name</i> that accepts <i>args</i>.
+     */
+    public Invocable findMethod(String name, Object[] args) {
+        Invocable[] candidates = methods.get(name);
+        if (candidates != null) {
+            for (Invocable candidate : candidates) {
+                if (isCompatible(candidate.parameterTypes, args))
+                    return candidate;
+            }
+        }
+        throw new IllegalStateException("Method " + name + " not found.");
+    }
+
+    /**
+     * @param id the identifier of a method, or a negative value to look it up by <i>name</i>.
+     * @return the public method <i>id</i> (or <i>name</i>) that accepts <i>args</i>.
+     */
+    public Invocable findMethod(int id, String name, Object[] args) {
+        if (id < 0)
+            return findMethod(name, args);
+        if (id < table.length && isCompatible(table[id].parameterTypes, args))
+            return table[id];
+        throw new IllegalStateException("Method #" + id + " not found in " + clazz + ".");
+    }
+
+    /**
+     * @return the identifier of <i>method</i>, or -1 if it is not a public method of this class.
+     */
+    public int idOf(Method method) {
+        Invocable invocable = invocables.get(method);
+        return invocable == null ? -1 : invocable.id;
+    }
+
+    /**
+     * @return the public method <i>method</i> of this class, or null if it is not one.
+     */
+    public Invocable invocableOf(Method method) {
+        return invocables.get(method);
+    }
+
+    /**
+     * @return a hash of the signatures of the public methods, that is, of the numbering of the methods.
+     */
+    public int getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return the constructor that accepts <i>args</i>.
+     */
+    public Constructor getConstructor(Object[] args) {
+        for (Creator creator : constructors) {
+            if (isCompatible(creator.parameterTypes, args))
+                return creator.constructor;
+        }
+        throw new IllegalArgumentException("Unable to find constructor for " + clazz.toString() + " with " + Arrays.toString(args));
+    }
+
+    /**
+     * @return the field annotated with @Id, or null if there is none.
+     */
+    public Field getIdField() {
+        return idField;
+    }
+
+    public boolean hasReadOnlyMethods() {
+        return hasReadOnlyMethods;
+    }
+
+    public boolean hasCommutativeMethods() {
+        return hasCommutativeMethods;
+    }
+
+    /**
+     * @return the size from which the byte arrays exchanged with this class are compressed, 0 for never.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    private static String signature(Method method) {
+        StringBuilder builder = new StringBuilder(method.getName())
+                .append('@').append(method.getDeclaringClass().getName()).append('(');
+        for (Class<?> type : method.getParameterTypes()) {
+            builder.append(type.getName()).append(',');
+        }
+        return builder.append(')').append(method.getReturnType().getName()).toString();
+    }
+
+    private static boolean isCompatible(Class<?>[] parameterTypes, Object[] args) {
+        if (parameterTypes.length != args.length)
+            return false;
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            Class<?> type = parameterTypes[i];
+            if (arg == null) {
+                if (type.isPrimitive())
+                    return false;
+            } else if (type.isPrimitive()) {
+                if (wrappers.get(type) != arg.getClass())
+                    return false;
+            } else if (!type.isInstance(arg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A public method together with a handle to call it.
+     */
+    public static class Invocable {
+
+        private final Method method;
+        private final int id;
+        private final Class<?>[] parameterTypes;
+        private final MethodHandle handle;
+        private final boolean isReadOnly;
+        private final boolean isCommutative;
+        private final boolean isParkable;
+
+        private Invocable(Method method, int id, boolean isParkable) {
+            method.setAccessible(true);
+            this.method = method;
+            this.id = id;
+            this.parameterTypes = method.getParameterTypes();
+            this.isReadOnly = method.isAnnotationPresent(ReadOnly.class);
+            this.isCommutative = method.isAnnotationPresent(Commutative.class);
+            this.isParkable = isParkable || method.isAnnotationPresent(Parkable.class);
+            MethodHandle h;
+            try {
+                h = MethodHandles.lookup().unreflect(method).asSpreader(Object[].class, parameterTypes.length);
+                if (Modifier.isStatic(method.getModifiers()))
+                    h = MethodHandles.dropArguments(h, 0, Object.class); // no receiver
+                h = h.asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+            } catch (IllegalAccessException e) {
+                h = null; // fall back to reflection
+            }
+            this.handle = h;
+        }
+
+        public Method getMethod() {
+            return method;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public boolean isReadOnly() {
+            return isReadOnly;
+        }
+
+        public boolean isCommutative() {
+            return isCommutative;
+        }
+
+        public boolean isParkable() {
+            return isParkable;
+        }
+
+        /**
+         * Calls this method on <i>target</i>, reporting failures as {@link Method#invoke} does.
+         */
+        public Object invoke(Object target, Object[] args) throws InvocationTargetException, IllegalAccessException {
+            if (handle == null)
+                return method.invoke(target, args);
+            try {
+                return (Object) handle.invokeExact(target, args);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+    }
+
+    private static class Creator {
+
+        private final Constructor constructor;
+        private final Class<?>[] parameterTypes;
+
+        private Creator(Constructor constructor) {
+            constructor.setAccessible(true);
+            this.constructor = constructor;
+            this.parameterTypes = constructor.getParameterTypes();
+        }
+
+    }
+
+}
@@ -1,36 +1,82 @@
 package org.infinispan.creson.utils;
 
-import com.fasterxml.uuid.NoArgGenerator;
 import org.infinispan.creson.Factory;
 
-import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
 
+/**
+ * The calling context of a thread.
+ * Calls are identified by the session of their caller and a sequence number in this session.
+ * The sequence is only incremented by the thread owning the context.
+ * The calls in progress are tracked to compute the watermark of the session (see {@link #watermark()}).
+ */
 public class Context {
 
-   private final UUID callerID;
-   private final NoArgGenerator generator;
-   private final Factory factory;
+   private volatile long callerID;
+   private Factory factory;
+   private long sequence;
+   private volatile ConcurrentSkipListSet<Long> pending; // created upon the first call
 
-   public Context(UUID callerID, NoArgGenerator generator, Factory factory) {
+   public Context(long callerID, Factory factory) {
+      reset(callerID, factory);
+   }
+
+   /**
+    * Starts a new session in this context, e.g., to reuse it for the calls made by an object at the server.
+    */
+   public void reset(long callerID, Factory factory) {
       this.callerID = callerID;
-      this.generator = generator;
       this.factory = factory;
-
+      this.sequence = 0;
+      this.pending = null;
    }
 
    public Factory getFactory() {
       return factory;
    }
 
-   public UUID getCallerID(){ return callerID;}
+   public long getCallerID(){ return callerID;}
+
+   /**
+    * @return the identifier of the next call in this session.
+    */
+   public long nextCallID() {
+      return sequence++;
+   }
+
+   /**
+    * Marks the call <i>callID</i> as in progress.
+    */
+   public void register(long callID) {
+      if (pending == null)
+         pending = new ConcurrentSkipListSet<>();
+      pending.add(callID);
+   }
+
+   /**
+    * Marks the call <i>callID</i> of session <i>callerID</i> as completed,
+    * i.e., its response was received or it was abandoned.
+    * This is a no-op if the context was reset meanwhile.
+    */
+   public void release(long callerID, long callID) {
+      ConcurrentSkipListSet<Long> pending = this.pending;
+      if (callerID == this.callerID && pending != null)
+         pending.remove(callID);
+   }
 
-   public NoArgGenerator getGenerator() {
-      return generator;
+   /**
+    * @return the identifier of the first call in progress, or of the next call if none;
+    * every call of this session with a lower identifier is completed.
+    */
+   public long watermark() {
+      ConcurrentSkipListSet<Long> pending = this.pending;
+      Long first = pending == null ? null : pending.ceiling(Long.MIN_VALUE);
+      return first == null ? sequence : first;
    }
 
    @Override
    public String toString() {
-      return "Context{" + callerID + ", generator="+generator+'}';
+      return "Context{" + callerID + ", sequence="+sequence+'}';
    }
 
 }
@@ -1,7 +1,5 @@
 package org.infinispan.creson.utils;
 
-import com.fasterxml.uuid.Generators;
-import com.fasterxml.uuid.NoArgGenerator;
 import org.infinispan.creson.Factory;
 
 import java.util.Random;
@@ -11,17 +9,15 @@ import java.util.Random;
  */
 public class ContextManager {
 
-   private static NoArgGenerator generator
-           = Generators.randomBasedGenerator(new Random(System.nanoTime()));
+   private static Random sessions = new Random(System.nanoTime());
 
    public static void seedGenerator(long seed){
-      generator = Generators.randomBasedGenerator(new Random(seed));
+      sessions = new Random(seed);
    }
 
    private static ThreadLocal<Context> context =
            ThreadLocal.withInitial(() -> new Context(
-                   generator.generate(),
-                   generator,
+                   sessions.nextLong(),
                    Factory.getSingleton()));
 
    public static Context get(){
@@ -0,0 +1,75 @@
+package org.infinispan.creson.utils;
+
+import org.infinispan.commons.dataconversion.MediaType;
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+import org.infinispan.commons.marshall.jboss.AbstractJBossMarshaller;
+import org.infinispan.commons.marshall.jboss.DefaultContextClassResolver;
+import org.infinispan.creson.object.Externalizers;
+import org.jboss.marshalling.Marshaller;
+import org.jboss.marshalling.ObjectTable;
+import org.jboss.marshalling.Unmarshaller;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The marshaller of the HotRod clients and servers, i.e., a generic JBoss marshaller that writes the calls and the
+ * references with their {@link Externalizers}.
+ * Both ends have to use it, e.g., <i>new ConfigurationBuilder().marshaller(new CresonMarshaller())</i> at a client.
+ *
+ * @author Pierre Sutra
+ */
+public class CresonMarshaller extends AbstractJBossMarshaller {
+
+    /**
+     * A media type of its own, so that the server transcodes the entries with this marshaller
+     * instead of the default transcoder of <i>application/x-jboss-marshalling</i>.
+     */
+    public static final MediaType MEDIA_TYPE = MediaType.fromString("application/x-creson-marshalling");
+
+    public CresonMarshaller() {
+        baseCfg.setClassResolver(new DefaultContextClassResolver(getClass().getClassLoader()));
+        baseCfg.setObjectTable(new Table());
+    }
+
+    @Override
+    public MediaType mediaType() {
+        return MEDIA_TYPE;
+    }
+
+    private static class Table implements ObjectTable {
+
+        private final Map<Class<?>, Writer> writers = new IdentityHashMap<>();
+        private final AdvancedExternalizer[] readers;
+
+        Table() {
+            List<AdvancedExternalizer<?>> externalizers = Externalizers.all();
+            readers = new AdvancedExternalizer[externalizers.size()];
+            for (AdvancedExternalizer externalizer : externalizers) {
+                int index = externalizer.getId() - Externalizers.FIRST;
+                readers[index] = externalizer;
+                Writer writer = (marshaller, object) -> {
+                    marshaller.writeByte(index);
+                    externalizer.writeObject(marshaller, object);
+                };
+                for (Object clazz : externalizer.getTypeClasses()) {
+                    writers.put((Class<?>) clazz, writer);
+                }
+            }
+        }
+
+        @Override
+        public Writer getObjectWriter(Object object) {
+            return writers.get(object.getClass());
+        }
+
+        @Override
+        public Object readObject(Unmarshaller unmarshaller) throws IOException, ClassNotFoundException {
+            return readers[unmarshaller.readUnsignedByte()].readObject(unmarshaller);
+        }
+
+    }
+
+}
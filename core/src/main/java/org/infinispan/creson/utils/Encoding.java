@@ -0,0 +1,232 @@
+package org.infinispan.creson.utils;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.infinispan.creson.utils.VarInt.readVarInt;
+import static org.infinispan.creson.utils.VarInt.readVarLong;
+import static org.infinispan.creson.utils.VarInt.writeVarInt;
+import static org.infinispan.creson.utils.VarInt.writeVarLong;
+
+/**
+ * Compact encoding of the values carried by the calls (keys, arguments, results).
+ * The common types are written natively after a one-byte tag, the others with <i>writeObject</i>.
+ * A byte array from a given size (the compression threshold) is deflated, if this makes it shorter.
+ * The state of an object, already marshalled, is such an array; the other values are left to the marshaller,
+ * which keeps its externalizers and its checks of the classes read.
+ * The tag tells the reader whether the array is compressed, so a reader needs no configuration.
+ * The lengths read are bounded (<i>creson.max.length</i>, 64MB by default), so that a corrupted or hostile stream
+ * cannot make the reader allocate an arbitrary amount of memory.
+ *
+ * @author Pierre Sutra
+ */
+public class Encoding {
+
+    private static final int MAX_UTF = 65535 / 3; // worst case of the modified UTF-8
+
+    /**
+     * The compression threshold of the classes without {@link org.infinispan.creson.Compression} (0 to disable).
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = Integer.getInteger("creson.compression.threshold", 4096);
+
+    /**
+     * The largest length (of an array, or of a list of values) accepted by the reader.
+     */
+    public static final int MAX_LENGTH = Integer.getInteger("creson.max.length", 64 << 20);
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private static final byte NULL = 0;
+    private static final byte OBJECT = 1;
+    private static final byte STRING = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte TRUE = 5;
+    private static final byte FALSE = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte UUID_ = 8;
+    private static final byte BYTES = 9;
+    private static final byte DEFLATED_BYTES = 10;
+
+    public static void writeValue(ObjectOutput output, Object value) throws IOException {
+        writeValue(output, value, 0);
+    }
+
+    /**
+     * @param threshold the size from which a byte array is compressed, 0 for never.
+     */
+    public static void writeValue(ObjectOutput output, Object value, int threshold) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof String && ((String) value).length() <= MAX_UTF) {
+            output.writeByte(STRING);
+            output.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            output.writeByte(INTEGER);
+            writeVarLong(output, zigzag((Integer) value));
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            writeVarLong(output, zigzag((Long) value));
+        } else if (value instanceof Boolean) {
+            output.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeDouble((Double) value);
+        } else if (value instanceof UUID) {
+            output.writeByte(UUID_);
+            output.writeLong(((UUID) value).getMostSignificantBits());
+            output.writeLong(((UUID) value).getLeastSignificantBits());
+        } else if (value instanceof byte[]) {
+            if (threshold > 0 && ((byte[]) value).length >= threshold && writeDeflated(output, (byte[]) value))
+                return;
+            output.writeByte(BYTES);
+            writeVarInt(output, ((byte[]) value).length);
+            output.write((byte[]) value);
+        } else {
+            output.writeByte(OBJECT);
+            output.writeObject(value);
+        }
+    }
+
+    public static Object readValue(ObjectInput input) throws IOException, ClassNotFoundException {
+        byte tag = input.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case OBJECT:
+                return input.readObject();
+            case STRING:
+                return input.readUTF();
+            case INTEGER:
+                return (int) unzigzag(readVarLong(input));
+            case LONG:
+                return unzigzag(readVarLong(input));
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case DOUBLE:
+                return input.readDouble();
+            case UUID_:
+                return new UUID(input.readLong(), input.readLong());
+            case BYTES:
+                byte[] bytes = new byte[readLength(input)];
+                input.readFully(bytes);
+                return bytes;
+            case DEFLATED_BYTES:
+                return readDeflated(input);
+            default:
+                throw new IOException("Unknown tag " + tag);
+        }
+    }
+
+    /**
+     * Writes an array of values, possibly null.
+     */
+    public static void writeValues(ObjectOutput output, Object[] values) throws IOException {
+        writeValues(output, values, 0);
+    }
+
+    public static void writeValues(ObjectOutput output, Object[] values, int threshold) throws IOException {
+        if (values == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+        writeVarInt(output, values.length + 1);
+        for (Object value : values) {
+            writeValue(output, value, threshold);
+        }
+    }
+
+    public static Object[] readValues(ObjectInput input) throws IOException, ClassNotFoundException {
+        int length = readVarInt(input) - 1;
+        if (length < 0)
+            return null;
+        if (length > MAX_LENGTH)
+            throw new IOException("Invalid length " + length);
+        Object[] values = new Object[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readValue(input);
+        }
+        return values;
+    }
+
+    /**
+     * Writes a class by its name, instead of a class descriptor.
+     */
+    public static void writeClass(ObjectOutput output, Class<?> clazz) throws IOException {
+        output.writeUTF(clazz.getName());
+    }
+
+    public static Class<?> readClass(ObjectInput input) throws IOException, ClassNotFoundException {
+        String name = input.readUTF();
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader != null) {
+            try {
+                return Class.forName(name, false, loader);
+            } catch (ClassNotFoundException e) {
+                // fall back to the loader of creson
+            }
+        }
+        return Class.forName(name, false, Encoding.class.getClassLoader());
+    }
+
+    private static boolean writeDeflated(ObjectOutput output, byte[] bytes) throws IOException {
+        Deflater deflater = deflaters.get();
+        byte[] deflated = new byte[bytes.length];
+        int length;
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            length = deflater.deflate(deflated);
+            if (!deflater.finished())
+                return false; // not shorter
+        } finally {
+            deflater.reset();
+        }
+        output.writeByte(DEFLATED_BYTES);
+        writeVarInt(output, bytes.length);
+        writeVarInt(output, length);
+        output.write(deflated, 0, length);
+        return true;
+    }
+
+    private static byte[] readDeflated(ObjectInput input) throws IOException {
+        byte[] bytes = new byte[readLength(input)];
+        byte[] deflated = new byte[readLength(input)];
+        input.readFully(deflated);
+        Inflater inflater = inflaters.get();
+        try {
+            inflater.setInput(deflated);
+            if (inflater.inflate(bytes) != bytes.length || !inflater.finished())
+                throw new IOException("Corrupted compressed array");
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.reset();
+        }
+        return bytes;
+    }
+
+    private static int readLength(ObjectInput input) throws IOException {
+        int length = readVarInt(input);
+        if (length < 0 || length > MAX_LENGTH)
+            throw new IOException("Invalid length " + length);
+        return length;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
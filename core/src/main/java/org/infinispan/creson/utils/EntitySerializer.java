@@ -0,0 +1,293 @@
+package org.infinispan.creson.utils;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.infinispan.creson.utils.Encoding.readValue;
+import static org.infinispan.creson.utils.Encoding.writeValue;
+import static org.infinispan.creson.utils.VarInt.readVarInt;
+import static org.infinispan.creson.utils.VarInt.writeVarInt;
+
+/**
+ * The serializer of the state of a shared class, i.e., of its public fields that are neither static nor transient.
+ * It is built once per class, with a writer specialized to the type of each field, which accesses the field through
+ * method handles: primitive fields are written natively, arrays of primitives in bulk,
+ * and the other fields with {@link Encoding}.
+ * The fields are ordered by name, and the state starts with a hash of their names and types (the schema),
+ * checked when it is read.
+ *
+ * @author Pierre Sutra
+ */
+public class EntitySerializer {
+
+    private static final ClassValue<EntitySerializer> serializers = new ClassValue<EntitySerializer>() {
+        @Override
+        protected EntitySerializer computeValue(Class<?> clazz) {
+            return new EntitySerializer(clazz);
+        }
+    };
+
+    public static EntitySerializer of(Class<?> clazz) {
+        return serializers.get(clazz);
+    }
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private final Class<?> clazz;
+    private final Accessor[] accessors;
+    private final int schema;
+
+    private EntitySerializer(Class<?> clazz) {
+        this.clazz = clazz;
+        List<Field> fields = new ArrayList<>();
+        for (Field field : clazz.getFields()) {
+            if (!Modifier.isTransient(field.getModifiers()) && !Modifier.isStatic(field.getModifiers()))
+                fields.add(field);
+        }
+        fields.sort(Comparator.comparing((Field f) -> f.getName()).thenComparing(f -> f.getDeclaringClass().getName()));
+        this.accessors = new Accessor[fields.size()];
+        int hash = 0;
+        for (int i = 0; i < accessors.length; i++) {
+            Field field = fields.get(i);
+            field.setAccessible(true);
+            try {
+                accessors[i] = accessor(field);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Unable to access " + field, e);
+            }
+            hash = 31 * hash + (field.getName() + ":" + field.getType().getName()).hashCode();
+        }
+        this.schema = hash;
+    }
+
+    public int getSchema() {
+        return schema;
+    }
+
+    public void write(Object object, ObjectOutput output) throws IOException {
+        output.writeInt(schema);
+        try {
+            for (Accessor accessor : accessors) {
+                accessor.write(object, output);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IOException(t);
+        }
+    }
+
+    public void read(Object object, ObjectInput input) throws IOException, ClassNotFoundException {
+        int received = input.readInt();
+        if (received != schema)
+            throw new IOException("The fields of " + clazz + " differ at the writer (schema " + received + ")");
+        try {
+            for (Accessor accessor : accessors) {
+                accessor.read(object, input);
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IOException(t);
+        }
+    }
+
+    private interface Accessor {
+        void write(Object object, ObjectOutput output) throws Throwable;
+
+        void read(Object object, ObjectInput input) throws Throwable;
+    }
+
+    private static Accessor accessor(Field field) throws IllegalAccessException {
+        Class<?> type = field.getType();
+        Class<?> erased = type.isPrimitive() || type.isArray() && type.getComponentType().isPrimitive() ? type : Object.class;
+        MethodHandle get = lookup.unreflectGetter(field).asType(MethodType.methodType(erased, Object.class));
+        MethodHandle set = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, erased));
+        if (type == int.class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    out.writeInt((int) get.invokeExact(o));
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    set.invokeExact(o, in.readInt());
+                }
+            };
+        } else if (type == long.class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    out.writeLong((long) get.invokeExact(o));
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    set.invokeExact(o, in.readLong());
+                }
+            };
+        } else if (type == boolean.class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    out.writeBoolean((boolean) get.invokeExact(o));
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    set.invokeExact(o, in.readBoolean());
+                }
+            };
+        } else if (type == double.class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    out.writeDouble((double) get.invokeExact(o));
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    set.invokeExact(o, in.readDouble());
+                }
+            };
+        } else if (type == float.class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    out.writeFloat((float) get.invokeExact(o));
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    set.invokeExact(o, in.readFloat());
+                }
+            };
+        } else if (type == short.class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    out.writeShort((short) get.invokeExact(o));
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    set.invokeExact(o, in.readShort());
+                }
+            };
+        } else if (type == byte.class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    out.writeByte((byte) get.invokeExact(o));
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    set.invokeExact(o, in.readByte());
+                }
+            };
+        } else if (type == char.class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    out.writeChar((char) get.invokeExact(o));
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    set.invokeExact(o, in.readChar());
+                }
+            };
+        } else if (type == byte[].class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    byte[] array = (byte[]) get.invokeExact(o);
+                    writeLength(out, array == null ? -1 : array.length);
+                    if (array != null)
+                        out.write(array);
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    int length = readLength(in);
+                    byte[] array = length < 0 ? null : new byte[length];
+                    if (array != null)
+                        in.readFully(array);
+                    set.invokeExact(o, array);
+                }
+            };
+        } else if (type == int[].class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    int[] array = (int[]) get.invokeExact(o);
+                    writeLength(out, array == null ? -1 : array.length);
+                    if (array != null)
+                        for (int v : array) out.writeInt(v);
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    int length = readLength(in);
+                    int[] array = length < 0 ? null : new int[length];
+                    for (int i = 0; i < length; i++) array[i] = in.readInt();
+                    set.invokeExact(o, array);
+                }
+            };
+        } else if (type == long[].class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    long[] array = (long[]) get.invokeExact(o);
+                    writeLength(out, array == null ? -1 : array.length);
+                    if (array != null)
+                        for (long v : array) out.writeLong(v);
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    int length = readLength(in);
+                    long[] array = length < 0 ? null : new long[length];
+                    for (int i = 0; i < length; i++) array[i] = in.readLong();
+                    set.invokeExact(o, array);
+                }
+            };
+        } else if (type == double[].class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    double[] array = (double[]) get.invokeExact(o);
+                    writeLength(out, array == null ? -1 : array.length);
+                    if (array != null)
+                        for (double v : array) out.writeDouble(v);
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    int length = readLength(in);
+                    double[] array = length < 0 ? null : new double[length];
+                    for (int i = 0; i < length; i++) array[i] = in.readDouble();
+                    set.invokeExact(o, array);
+                }
+            };
+        } else if (erased == Object.class) {
+            return new Accessor() {
+                public void write(Object o, ObjectOutput out) throws Throwable {
+                    writeValue(out, (Object) get.invokeExact(o));
+                }
+
+                public void read(Object o, ObjectInput in) throws Throwable {
+                    set.invokeExact(o, readValue(in));
+                }
+            };
+        }
+        // other arrays of primitives
+        MethodHandle getObject = get.asType(MethodType.methodType(Object.class, Object.class));
+        MethodHandle setObject = set.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        return new Accessor() {
+            public void write(Object o, ObjectOutput out) throws Throwable {
+                writeValue(out, (Object) getObject.invokeExact(o));
+            }
+
+            public void read(Object o, ObjectInput in) throws Throwable {
+                setObject.invokeExact(o, readValue(in));
+            }
+        };
+    }
+
+    private static void writeLength(ObjectOutput output, int length) throws IOException {
+        writeVarInt(output, length + 1); // 0 for null
+    }
+
+    private static int readLength(ObjectInput input) throws IOException {
+        return readVarInt(input) - 1;
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.infinispan.creson.utils;
+
+/**
+ * Tracks the monitor operations of a call executed at the server.
+ * When parking is allowed (see {@link org.infinispan.creson.Parkable}), a call that waits indefinitely on a monitor
+ * is aborted with {@link #PARKED} instead of blocking the executing thread; the call is then re-executed once notified.
+ * If the call catches that signal and waits anew, it blocks.
+ *
+ * @author Pierre Sutra
+ */
+public class Parking {
+
+    /**
+     * Notifying all the waiters.
+     */
+    public static final int ALL = Integer.MAX_VALUE;
+
+    public static final Parked PARKED = new Parked();
+
+    private static final ThreadLocal<Parking> base = ThreadLocal.withInitial(() -> new Parking(null));
+    private static final ThreadLocal<Parking> current = new ThreadLocal<>();
+
+    /**
+     * Opens the parking of a call executed by the current thread; it is reused by the next calls at the same depth.
+     */
+    public static Parking open(boolean mayPark) {
+        Parking previous = current.get();
+        Parking parking = previous == null ? base.get() : previous.nested();
+        parking.mayPark = mayPark;
+        parking.parked = false;
+        parking.notified = 0;
+        current.set(parking);
+        return parking;
+    }
+
+    /**
+     * @return the parking of the call executed by the current thread, or null if there is none.
+     */
+    public static Parking current() {
+        return current.get();
+    }
+
+    private final Parking previous;
+    private Parking nested;
+    private boolean mayPark;
+    private boolean parked;
+    private int notified;
+
+    private Parking(Parking previous) {
+        this.previous = previous;
+    }
+
+    public boolean mayPark() {
+        return mayPark;
+    }
+
+    /**
+     * Aborts the call with {@link #PARKED} if it may park; called before it waits indefinitely.
+     */
+    public void park() {
+        if (!mayPark)
+            return;
+        if (parked) { // the call caught the signal, thus it blocks from now on
+            mayPark = false;
+            parked = false;
+            return;
+        }
+        parked = true;
+        throw PARKED;
+    }
+
+    /**
+     * @return true if the call was parked, even if it caught the signal afterwards.
+     */
+    public boolean isParked() {
+        return parked;
+    }
+
+    public void notified(int waiters) {
+        notified = (int) Math.min(ALL, (long) notified + waiters);
+    }
+
+    /**
+     * @return how many waiters were notified, {@link #ALL} standing for all of them.
+     */
+    public int close() {
+        current.set(previous);
+        return notified;
+    }
+
+    private Parking nested() {
+        if (nested == null)
+            nested = new Parking(this);
+        return nested;
+    }
+
+    public static class Parked extends Error {
+
+        private Parked() {
+            super("parked", null, false, false);
+        }
+
+    }
+
+}
@@ -2,11 +2,9 @@ package org.infinispan.creson.utils;
 
 import org.infinispan.commons.logging.Log;
 import org.infinispan.commons.logging.LogFactory;
-import org.infinispan.creson.ReadOnly;
 import org.infinispan.creson.object.Reference;
 
 import javax.persistence.Entity;
-import javax.persistence.Id;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -50,14 +48,7 @@ public class Reflection {
         // force the key field to the value in the reference
         if (reference.getClazz().getAnnotation(Entity.class)!=null) {
             assert reference.getKey() != null;
-            java.lang.reflect.Field field = null;
-            for (java.lang.reflect.Field f : reference.getClazz().getDeclaredFields()) {
-                f.setAccessible(true);
-                if (f.getAnnotation(Id.class) != null) {
-                    field = f;
-                    break;
-                }
-            }
+            java.lang.reflect.Field field = ClassMetadata.of(reference.getClazz()).getIdField();
             assert field != null : reference;
             field.set(ret, reference.getKey());
         }
@@ -75,37 +66,27 @@ public class Reflection {
 
     public static Constructor getConstructor(Class clazz, java.lang.Object... initArgs)
             throws IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
-        Constructor[] allConstructors = clazz.getDeclaredConstructors();
-        for (Constructor ctor : allConstructors) {
-            ctor.setAccessible(true);
-            if (ctor.getParameterTypes().length == initArgs.length) {
-                if (isCompatible(ctor, initArgs)) {
-                    return ctor;
-                }
-            }
-        }
-        throw new IllegalArgumentException("Unable to find constructor for " + clazz.toString() + " with " + Arrays.toString(initArgs));
+        return ClassMetadata.of(clazz).getConstructor(initArgs);
     }
 
     // methods
 
     public static Method findMethod(java.lang.Object obj, String method, java.lang.Object[] args)
             throws IllegalAccessException {
-        for (Method m : obj.getClass().getMethods()) { // only public methods (inherited and not)
-            m.setAccessible(true);
-            if (method.equals(m.getName())) {
-                if (m.getParameterTypes().length == args.length) {
-                    if (isCompatible(m, args))
-                        return m;
-                }
-            }
-        }
-        throw new IllegalStateException("Method " + method + " not found.");
+        return ClassMetadata.of(obj.getClass()).findMethod(method, args).getMethod();
     }
 
     public static java.lang.Object callObject(java.lang.Object obj, String method, java.lang.Object[] args)
             throws InvocationTargetException, IllegalAccessException {
-        return findMethod(obj,method,args).invoke(obj, args);
+        return ClassMetadata.of(obj.getClass()).findMethod(method, args).invoke(obj, args);
+    }
+
+    /**
+     * Calls the method <i>id</i> of <i>obj</i>, or the method <i>method</i> if <i>id</i> is negative.
+     */
+    public static java.lang.Object callObject(java.lang.Object obj, int id, String method, java.lang.Object[] args)
+            throws InvocationTargetException, IllegalAccessException {
+        return ClassMetadata.of(obj.getClass()).findMethod(id, method, args).invoke(obj, args);
     }
 
     public static boolean isMethodSynchronized(java.lang.Object obj, String method, java.lang.Object[] args)
@@ -115,11 +96,7 @@ public class Reflection {
 
 
     public static boolean hasReadOnlyMethods(Class clazz) {
-        for (Method m : clazz.getMethods()) {
-            if (m.isAnnotationPresent(ReadOnly.class))
-                return true;
-        }
-        return false;
+        return ClassMetadata.of(clazz).hasReadOnlyMethods();
     }
 
     public static boolean isMethodSupported(Class clazz, Method method) {
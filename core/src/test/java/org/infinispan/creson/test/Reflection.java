@@ -1,9 +1,14 @@
 package org.infinispan.creson.test;
 
+import org.infinispan.creson.utils.ClassMetadata;
 import org.testng.annotations.Test;
 
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
+import static org.infinispan.creson.utils.Reflection.callObject;
 import static org.infinispan.creson.utils.Reflection.isMethodSupported;
 
 public class Reflection {
@@ -15,4 +20,27 @@ public class Reflection {
         assert !isMethodSupported(HashSet.class,HashSet.class.getMethod("wait",(Class<?>[])null));
     }
 
+    @Test
+    public void metadata() throws Exception {
+        List<Integer> list = new ArrayList<>();
+        assert (Boolean) callObject(list, "add", new Object[]{1});
+        callObject(list, "add", new Object[]{0, 2}); // add(int, Object)
+        assert list.get(0) == 2;
+        assert (Integer) callObject(list, "get", new Object[]{1}) == 1;
+        assert callObject(list, "size", new Object[0]).equals(2);
+
+        ClassMetadata metadata = ClassMetadata.of(ArrayList.class);
+        assert metadata == ClassMetadata.of(ArrayList.class);
+        assert !metadata.hasReadOnlyMethods();
+        assert metadata.getIdField() == null;
+        assert metadata.getConstructor(new Object[]{10}).getParameterTypes()[0] == int.class;
+
+        try {
+            callObject(list, "get", new Object[]{5});
+            assert false;
+        } catch (InvocationTargetException e) {
+            assert e.getCause() instanceof IndexOutOfBoundsException;
+        }
+    }
+
 }
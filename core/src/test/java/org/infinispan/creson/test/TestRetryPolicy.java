@@ -0,0 +1,44 @@
+package org.infinispan.creson.test;
+
+import org.infinispan.creson.container.RetryPolicy;
+import org.infinispan.creson.container.RoundTripTimes;
+import org.testng.annotations.Test;
+
+/**
+ * @author Pierre Sutra
+ */
+
+@Test(testName = "TestRetryPolicy")
+public class TestRetryPolicy {
+
+    @Test
+    public void adaptiveTimeout() {
+        RetryPolicy policy = new RetryPolicy(3, 10, 1000, 0.99, 2, 1, 100);
+        RoundTripTimes rtts = new RoundTripTimes(policy.getPercentile());
+
+        // unknown round-trip times
+        assert policy.timeout(1, rtts.percentile(), true) == 1000;
+
+        for (int i = 0; i < 100; i++) {
+            rtts.add(20 * 1000000);
+        }
+        assert policy.timeout(1, rtts.percentile(), true) == 40;
+        assert policy.timeout(2, rtts.percentile(), true) == 80;
+        assert policy.timeout(3, rtts.percentile(), true) == 1000; // last attempt
+        assert policy.timeout(1, rtts.percentile(), false) == 1000; // not idempotent
+
+        rtts.add(1);
+        assert policy.timeout(1, 1, true) == 10;
+    }
+
+    @Test
+    public void jitteredBackoff() {
+        RetryPolicy policy = new RetryPolicy(3, 10, 1000, 0.99, 2, 1, 100);
+        for (int i = 0; i < 100; i++) {
+            assert policy.backoff(1) <= 1;
+            assert policy.backoff(5) <= 16;
+            assert policy.backoff(20) <= 100;
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static org.infinispan.creson.Factory.CRESON_CACHE_NAME;
+import static org.infinispan.creson.utils.ConfigurationHelper.addExternalizers;
 import static org.infinispan.creson.utils.ConfigurationHelper.installCreson;
 
 /**
@@ -58,6 +59,9 @@ public class Server {
     @Option(name = "-idempotence", usage = "idempotence of method calls")
     private boolean withIdempotence = false;
 
+    @Option(name = "-mailboxes", usage = "number of threads executing the calls (0 to use the HotRod worker threads)")
+    private int mailboxes = 0;
+
     public Server() {
     }
 
@@ -115,6 +119,7 @@ public class Server {
         gbuilder.transport().clusterName("creson-cluster");
         gbuilder.transport().nodeName("creson-server-" + host);
         gbuilder.transport().addProperty("configurationFile", "jgroups.xml");
+        addExternalizers(gbuilder);
 
         ConfigurationBuilder cBuilder
                 = AbstractCacheTest.getDefaultClusteredCacheConfig(CacheMode.DIST_ASYNC, false);
@@ -130,7 +135,8 @@ public class Server {
                 STORAGE_PATH_PREFIX + "/" + host,
                 true,
                 false,
-                false);
+                false,
+                mailboxes);
 
         HotRodServerConfigurationBuilder hbuilder = new HotRodServerConfigurationBuilder();
         hbuilder.topologyStateTransfer(true);
@@ -4,60 +4,337 @@ import org.infinispan.creson.object.Call;
 import org.infinispan.creson.object.CallResponse;
 import org.infinispan.creson.object.Reference;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.infinispan.util.logging.Log;
-import org.infinispan.util.logging.LogFactory;
-
+/**
+ * The results of the calls executed on the objects, to answer the calls received anew (e.g., retried by the client).
+ * <p>
+ * The results are kept per object and per session of the caller, in a small ring.
+ * A call carries the watermark of its session (see {@link Call#getWatermark()}),
+ * below which the caller received all the responses; the results below it are dropped.
+ * A call received again after it was acknowledged gets an empty response, as the caller discards it.
+ * <p>
+ * The table is bounded: a full ring drops its oldest result,
+ * and past the capacity of the table, the sessions unused for the longest time are dropped.
+ * A session counts against the capacity on its own, as it keeps its watermark once its results are acknowledged.
+ * <p>
+ * The results to the calls on an object travel with it in the metadata of its entry (see {@link ResponseMetadata}).
+ *
+ * @author Pierre Sutra
+ */
 public class CallResponseCache {
 
-    private ConcurrentMap<Reference,ConcurrentHashMap<UUID, Map<UUID,Object>>> responses = new ConcurrentHashMap<>();
+    public static final int DEFAULT_RING_SIZE = 16;
+    public static final long DEFAULT_CAPACITY = 1 << 20;
+
+    private final int ringSize;
+    private final long capacity;
+    private final ConcurrentMap<Reference, ConcurrentMap<Long, Session>> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong sessionCount = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
 
-    public boolean contains(Call call) {
-        return responses.containsKey(call.getReference())
-                && responses.get(call.getReference()).containsKey(call.getCallerID())
-                && responses.get(call.getReference()).get(call.getCallerID()).containsKey(call.getCallID());
+    public CallResponseCache() {
+        this(DEFAULT_RING_SIZE, DEFAULT_CAPACITY);
     }
 
-    public CallResponse get(Call call){
-        CallResponse response = null;
-        if (responses.containsKey(call.getReference())) {
-            if (responses.get(call.getReference()).containsKey(call.getCallerID())) {
-                if (responses.get(call.getReference()).get(call.getCallerID()).containsKey(call.getCallID())) {
-                    response = new CallResponse(call.getReference(), call);
-                    response.setResult(responses.get(call.getReference()).get(call.getCallerID()).get(call.getCallID()));
-                }
-            }
+    /**
+     * @param ringSize the number of results kept per object and session, beyond the watermark.
+     * @param capacity the total number of results and sessions kept.
+     */
+    public CallResponseCache(int ringSize, long capacity) {
+        assert ringSize > 0 && capacity >= ringSize;
+        this.ringSize = ringSize;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Acknowledges the calls of the session below the watermark of <i>call</i>.
+     *
+     * @return the response to <i>call</i> if it was already executed, and null otherwise.
+     */
+    public CallResponse get(Call call) {
+        ConcurrentMap<Long, Session> perCaller = sessions.get(call.getReference());
+        Session session = perCaller == null ? null : perCaller.get(call.getCallerID());
+        if (session == null)
+            return null;
+
+        synchronized (session) {
+            session.acknowledge(call.getWatermark());
+            if (call.getCallID() < session.watermark)
+                return new CallResponse(call.getReference(), call);
+            int i = session.indexOf(call.getCallID());
+            if (i < 0)
+                return null;
+            CallResponse response = new CallResponse(call.getReference(), call);
+            response.setResult(session.results[i]);
+            return response;
         }
-        return response;
     }
 
     public void put(Call call, CallResponse response) {
-        if (!responses.containsKey(call.getReference()))
-            responses.putIfAbsent(call.getReference(), new ConcurrentHashMap<>());
+        while (true) {
+            Session session = sessionOf(call.getReference(), call.getCallerID());
+            synchronized (session) {
+                if (session.evicted) // dropped meanwhile, thus no longer in the table
+                    continue;
+                session.lastAccess = clock.incrementAndGet();
+                session.acknowledge(call.getWatermark());
+                if (call.getCallID() >= session.watermark)
+                    session.add(call.getCallID(), response.getResult());
+            }
+            break;
+        }
+
+        if (load() > capacity)
+            evictIdleSessions();
+    }
 
-        if (!responses.get(call.getReference()).containsKey(call.getCallerID()))
-            responses.get(call.getReference()).put(call.getCallerID(), new HashMap<>());
+    /**
+     * @return the number of results currently kept.
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * @return the number of sessions currently kept.
+     */
+    public long sessions() {
+        return sessionCount.get();
+    }
 
-        responses.get(call.getReference()).get(call.getCallerID()).put(
-                call.getCallID(),
-                response.getResult());
+    /**
+     * @return the number of results dropped before their acknowledgement.
+     */
+    public long evictions() {
+        return evictions.get();
     }
 
     /**
      * Assumed to be sequentially executed.
      */
-    public void clearAll(){
-        responses.clear();
+    public void clearAll() {
+        sessions.clear();
+        size.set(0);
+        sessionCount.set(0);
+    }
+
+    public void clear(Call call) {
+        ConcurrentMap<Long, Session> perCaller = sessions.remove(call.getReference());
+        if (perCaller != null)
+            perCaller.values().forEach(this::evict);
+    }
+
+    /**
+     * @return a copy of the results kept for <i>reference</i>, per session.
+     */
+    Map<Long, Record> records(Reference reference) {
+        Map<Long, Record> records = new HashMap<>();
+        ConcurrentMap<Long, Session> perCaller = sessions.get(reference);
+        if (perCaller != null) {
+            perCaller.forEach((callerID, session) -> {
+                synchronized (session) {
+                    if (!session.evicted)
+                        records.put(callerID, new Record(session.watermark,
+                                Arrays.copyOf(session.ids, session.count),
+                                Arrays.copyOf(session.results, session.count)));
+                }
+            });
+        }
+        return records;
+    }
+
+    /**
+     * Adds the results in <i>records</i> (e.g., received with the object) for the sessions unknown to this table.
+     */
+    void restore(Reference reference, Map<Long, Record> records) {
+        records.forEach((callerID, record) -> {
+            Session restored = new Session(ringSize);
+            restored.lastAccess = clock.incrementAndGet();
+            restored.watermark = record.watermark;
+            for (int i = 0; i < record.ids.length && i < ringSize; i++) {
+                restored.add(record.ids[i], record.results[i]);
+            }
+            sessions.compute(reference, (k, perCaller) -> {
+                if (perCaller == null)
+                    perCaller = new ConcurrentHashMap<>();
+                if (perCaller.putIfAbsent(callerID, restored) != null)
+                    restored.clear();
+                else
+                    sessionCount.incrementAndGet();
+                return perCaller;
+            });
+        });
+    }
+
+    // internals
+
+    /**
+     * The session is created together with the sessions of its object, so that the eviction of the last session
+     * of that object, which drops them, cannot interleave.
+     *
+     * @return the session of <i>callerID</i> on <i>reference</i>, created if needed.
+     */
+    private Session sessionOf(Reference reference, long callerID) {
+        Session[] session = new Session[1];
+        sessions.compute(reference, (k, perCaller) -> {
+            if (perCaller == null)
+                perCaller = new ConcurrentHashMap<>();
+            session[0] = perCaller.computeIfAbsent(callerID, c -> {
+                sessionCount.incrementAndGet();
+                return new Session(ringSize);
+            });
+            return perCaller;
+        });
+        return session[0];
+    }
+
+    /**
+     * Drops the sessions unused for the longest time, down to 3/4 of the capacity.
+     */
+    private synchronized void evictIdleSessions() {
+        if (load() <= capacity)
+            return;
+
+        List<Map.Entry<Reference, Map.Entry<Long, Session>>> all = new ArrayList<>();
+        for (Map.Entry<Reference, ConcurrentMap<Long, Session>> perCaller : sessions.entrySet()) {
+            for (Map.Entry<Long, Session> entry : perCaller.getValue().entrySet()) {
+                all.add(new AbstractMap.SimpleImmutableEntry<>(perCaller.getKey(), entry));
+            }
+        }
+        all.sort(Comparator.comparingLong(e -> e.getValue().getValue().lastAccess));
+
+        long target = capacity - capacity / 4;
+        for (Map.Entry<Reference, Map.Entry<Long, Session>> e : all) {
+            if (load() <= target)
+                break;
+            ConcurrentMap<Long, Session> perCaller = sessions.get(e.getKey());
+            if (perCaller != null && perCaller.remove(e.getValue().getKey(), e.getValue().getValue())) {
+                evictions.addAndGet(evict(e.getValue().getValue()));
+                sessions.computeIfPresent(e.getKey(), (k, v) -> v.isEmpty() ? null : v);
+            }
+        }
+    }
+
+    /**
+     * @return the number of results dropped with <i>session</i>.
+     */
+    private int evict(Session session) {
+        synchronized (session) {
+            session.evicted = true;
+            sessionCount.decrementAndGet();
+            return session.clear();
+        }
+    }
+
+    private long load() {
+        return size.get() + sessionCount.get();
+    }
+
+    /**
+     * A copy of the results to the calls of a session on an object.
+     */
+    static class Record {
+
+        final long watermark;
+        final long[] ids;
+        final Object[] results;
+
+        Record(long watermark, long[] ids, Object[] results) {
+            this.watermark = watermark;
+            this.ids = ids;
+            this.results = results;
+        }
+
     }
 
-   public void clear(Call call){
-        if (responses.containsKey(call.getReference())) {
-            responses.get(call.getReference()).clear();
+    /**
+     * The results to the calls of a session on an object; guarded by its monitor.
+     */
+    private class Session {
+
+        private final long[] ids;
+        private final Object[] results;
+        private int count;
+        private long watermark;
+        private long lastAccess;
+        private boolean evicted;
+
+        Session(int ringSize) {
+            this.ids = new long[ringSize];
+            this.results = new Object[ringSize];
+        }
+
+        int indexOf(long callID) {
+            for (int i = 0; i < count; i++) {
+                if (ids[i] == callID)
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Drops the results below <i>watermark</i>.
+         */
+        void acknowledge(long watermark) {
+            if (watermark <= this.watermark)
+                return;
+            this.watermark = watermark;
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (ids[i] >= watermark) {
+                    ids[kept] = ids[i];
+                    results[kept++] = results[i];
+                }
+            }
+            size.addAndGet(kept - count);
+            for (int i = kept; i < count; i++) {
+                results[i] = null;
+            }
+            count = kept;
+        }
+
+        /**
+         * Adds a result, dropping the one with the lowest identifier if the ring is full.
+         */
+        void add(long callID, Object result) {
+            int i = indexOf(callID);
+            if (i < 0 && count == ids.length) {
+                i = 0;
+                for (int j = 1; j < count; j++) {
+                    if (ids[j] < ids[i])
+                        i = j;
+                }
+                evictions.incrementAndGet();
+            } else if (i < 0) {
+                i = count++;
+                size.incrementAndGet();
+            }
+            ids[i] = callID;
+            results[i] = result;
         }
+
+        int clear() {
+            int dropped = count;
+            size.addAndGet(-count);
+            for (int i = 0; i < count; i++) {
+                results[i] = null;
+            }
+            count = 0;
+            return dropped;
+        }
+
     }
+
 }
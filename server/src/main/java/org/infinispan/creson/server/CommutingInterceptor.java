@@ -0,0 +1,165 @@
+package org.infinispan.creson.server;
+
+import org.infinispan.commands.write.PutKeyValueCommand;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.context.impl.FlagBitSets;
+import org.infinispan.creson.object.Call;
+import org.infinispan.creson.object.CallInvoke;
+import org.infinispan.creson.object.Reference;
+import org.infinispan.creson.utils.ClassMetadata;
+import org.infinispan.distribution.DistributionManager;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.infinispan.interceptors.InvocationFinallyAction;
+import org.infinispan.util.logging.Log;
+import org.infinispan.util.logging.LogFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Lets the calls that commute bypass the lock on their object's key, so that they do not wait for each other.
+ * These are the calls to a @ReadOnly method, which execute in parallel, and the calls to a @Commutative method,
+ * which are replicated concurrently, hence possibly applied in a different order at the backup owners.
+ * Such calls are then isolated from the other ones by the read/write lock of the object in
+ * {@link StateMachineInterceptor}.
+ * <p>
+ * As a commutative call does not commute with the other mutating calls, the two kinds of calls are not in progress
+ * at the same time: each object has a gate that admits either commutative calls or the other mutating calls.
+ * <p>
+ * This applies only at the primary owner, and when the object already exists there.
+ *
+ * @author Pierre Sutra
+ */
+public class CommutingInterceptor extends BaseCustomAsyncInterceptor {
+
+    private static final Log log = LogFactory.getLog(CommutingInterceptor.class);
+
+    private final ConcurrentMap<Reference, Gate> gates = new ConcurrentHashMap<>();
+
+    @Override
+    public Object visitPutKeyValueCommand(InvocationContext ctx, PutKeyValueCommand command) throws Throwable {
+
+        if (!(command.getValue() instanceof Call)) {
+            return invokeNext(ctx, command);
+        }
+
+        Call call = (Call) command.getValue();
+        Reference reference = call.getReference();
+        boolean isInvoke = call instanceof CallInvoke && ((CallInvoke) call).getConstruct() == null;
+        boolean isReadOnly = isInvoke && isReadOnly((CallInvoke) call);
+        boolean isCommutative = isInvoke && isCommutative((CallInvoke) call);
+
+        if ((isReadOnly || isCommutative)
+                && isPrimary(reference)
+                && cache.getAdvancedCache().getDataContainer().containsKey(reference)) {
+            if (log.isTraceEnabled())
+                log.trace(" Skip locking [" + call + "]");
+            command.addFlags(FlagBitSets.SKIP_LOCKING);
+        }
+
+        if (isReadOnly
+                || !ClassMetadata.of(reference.getClazz()).hasCommutativeMethods()
+                || !isPrimary(reference)) {
+            return invokeNext(ctx, command);
+        }
+
+        InvocationFinallyAction exit = (rCtx, rCommand, rv, t) -> exit(reference);
+        CompletableFuture<Void> admission = enter(reference, isCommutative);
+        if (admission == null)
+            return invokeNextAndFinally(ctx, command, exit);
+        return makeStage(asyncInvokeNext(ctx, command, admission)).andFinally(ctx, command, exit);
+    }
+
+    static boolean isReadOnly(CallInvoke invocation) {
+        ClassMetadata.Invocable method = methodOf(invocation);
+        return method != null && method.isReadOnly();
+    }
+
+    static boolean isCommutative(CallInvoke invocation) {
+        ClassMetadata.Invocable method = methodOf(invocation);
+        return method != null && method.isCommutative();
+    }
+
+    // internals
+
+    /**
+     * @return null if the call is admitted at once, otherwise a future completed upon its admission.
+     */
+    private CompletableFuture<Void> enter(Reference reference, boolean isCommutative) {
+        Waiter[] waiter = new Waiter[1];
+        gates.compute(reference, (k, gate) -> {
+            if (gate == null)
+                gate = new Gate();
+            if (gate.active == 0 || (gate.commuting == isCommutative && gate.waiting.isEmpty())) {
+                gate.commuting = isCommutative;
+                gate.active++;
+            } else {
+                waiter[0] = new Waiter(isCommutative);
+                gate.waiting.add(waiter[0]);
+            }
+            return gate;
+        });
+        return waiter[0] == null ? null : waiter[0].admission;
+    }
+
+    /**
+     * Once the last call in progress exits, admits the next waiting calls of the same kind.
+     */
+    private void exit(Reference reference) {
+        List<Waiter> admitted = new ArrayList<>();
+        gates.computeIfPresent(reference, (k, gate) -> {
+            gate.active--;
+            if (gate.active == 0) {
+                while (!gate.waiting.isEmpty()
+                        && (admitted.isEmpty() || gate.waiting.peek().commuting == admitted.get(0).commuting)) {
+                    admitted.add(gate.waiting.poll());
+                }
+                if (!admitted.isEmpty()) {
+                    gate.commuting = admitted.get(0).commuting;
+                    gate.active = admitted.size();
+                }
+            }
+            return gate.active == 0 ? null : gate;
+        });
+        admitted.forEach(waiter -> waiter.admission.complete(null));
+    }
+
+    private static ClassMetadata.Invocable methodOf(CallInvoke invocation) {
+        try {
+            return ClassMetadata.of(invocation.getReference().getClazz())
+                    .findMethod(invocation.methodId, invocation.method, invocation.arguments);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    private boolean isPrimary(Reference reference) {
+        DistributionManager manager = cache.getAdvancedCache().getDistributionManager();
+        return manager == null || manager.getCacheTopology().getDistribution(reference).isPrimary();
+    }
+
+    private static class Gate {
+
+        private boolean commuting;
+        private int active;
+        private final Deque<Waiter> waiting = new ArrayDeque<>();
+
+    }
+
+    private static class Waiter {
+
+        private final boolean commuting;
+        private final CompletableFuture<Void> admission = new CompletableFuture<>();
+
+        Waiter(boolean commuting) {
+            this.commuting = commuting;
+        }
+
+    }
+
+}
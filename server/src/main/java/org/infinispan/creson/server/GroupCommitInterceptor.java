@@ -0,0 +1,183 @@
+package org.infinispan.creson.server;
+
+import org.infinispan.AdvancedCache;
+import org.infinispan.commands.write.PutKeyValueCommand;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.creson.object.Call;
+import org.infinispan.creson.object.CallBatch;
+import org.infinispan.creson.object.CallInvoke;
+import org.infinispan.creson.object.CallResponse;
+import org.infinispan.creson.object.Reference;
+import org.infinispan.creson.utils.ContextManager;
+import org.infinispan.distribution.DistributionManager;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.infinispan.util.logging.Log;
+import org.infinispan.util.logging.LogFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Groups the calls to an object that arrive while a call to that object is in progress.
+ * Once the call completes, the calls received meanwhile are executed in order as a single batch,
+ * that is, under one acquisition of the lock and with one replication to the backup owners.
+ * <p>
+ * This applies to the mutating calls received by the primary owner of the object.
+ * The calls that commute are not grouped, as they do not wait for each other (see {@link CommutingInterceptor}).
+ *
+ * @author Pierre Sutra
+ */
+public class GroupCommitInterceptor extends BaseCustomAsyncInterceptor {
+
+    private static final Log log = LogFactory.getLog(GroupCommitInterceptor.class);
+
+    /**
+     * The calls waiting for a batch, per object; an object is present while a call to it is in progress.
+     */
+    private final ConcurrentMap<Reference, Deque<Pending>> queues = new ConcurrentHashMap<>();
+
+    private AdvancedCache<Reference, Call> callCache;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void start() {
+        callCache = (AdvancedCache<Reference, Call>) cache.getAdvancedCache();
+    }
+
+    @Override
+    public Object visitPutKeyValueCommand(InvocationContext ctx, PutKeyValueCommand command) throws Throwable {
+
+        if (!(command.getValue() instanceof CallInvoke)
+                || !ctx.isOriginLocal()
+                || CommutingInterceptor.isReadOnly((CallInvoke) command.getValue())
+                || CommutingInterceptor.isCommutative((CallInvoke) command.getValue())
+                || !isPrimary((Reference) command.getKey())) {
+            return invokeNext(ctx, command);
+        }
+
+        CallInvoke call = (CallInvoke) command.getValue();
+        Reference reference = call.getReference();
+
+        Pending pending = new Pending(call);
+        boolean[] inProgress = new boolean[1];
+        queues.compute(reference, (k, queue) -> {
+            if (queue == null)
+                return new ArrayDeque<>();
+            queue.add(pending);
+            inProgress[0] = true;
+            return queue;
+        });
+
+        if (inProgress[0])
+            return asyncValue(pending.future);
+
+        return invokeNextAndHandle(ctx, command, (rCtx, rCommand, rv, t) -> {
+            flush(reference);
+            if (t != null)
+                throw t;
+            return rv;
+        });
+    }
+
+    // internals
+
+    /**
+     * Executes the calls waiting for <i>reference</i> as a batch, or marks the object as idle if there are none.
+     */
+    private void flush(Reference reference) {
+        List<Pending> batch = new ArrayList<>();
+        queues.computeIfPresent(reference, (k, queue) -> {
+            if (queue.isEmpty())
+                return null;
+            batch.addAll(queue);
+            queue.clear();
+            return queue;
+        });
+
+        if (batch.isEmpty())
+            return;
+
+        List<Call> calls = new ArrayList<>(batch.size());
+        long stateVersion = batch.get(0).call.getStateVersion();
+        for (Pending pending : batch) {
+            calls.add(pending.call);
+            if (pending.call.getStateVersion() != stateVersion)
+                stateVersion = 0;
+        }
+        CallBatch call = new CallBatch(reference, ContextManager.get().nextCallID(), calls, true);
+        call.setStateVersion(stateVersion); // the state is shipped unless all the callers hold it
+
+        if (log.isTraceEnabled())
+            log.trace(" Grouping " + calls.size() + " call(s) to " + reference);
+
+        CompletableFuture<Call> future;
+        try {
+            future = callCache.putAsync(reference, call);
+        } catch (Throwable t) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+        }
+
+        future.whenComplete((rv, t) -> {
+            try {
+                if (t != null) {
+                    fail(batch, t);
+                } else {
+                    complete(batch, rv);
+                }
+            } catch (Throwable e) {
+                fail(batch, e); // the callers of the batch would otherwise wait until they time out
+            } finally {
+                flush(reference);
+            }
+        });
+    }
+
+    private void complete(List<Pending> batch, Call rv) {
+        if (!(rv instanceof CallResponse))
+            throw new IllegalStateException("Unexpected response " + rv + " to a batch");
+        CallResponse response = (CallResponse) rv;
+        if (response.getResult() instanceof Throwable) {
+            fail(batch, (Throwable) response.getResult());
+            return;
+        }
+        if (!(response.getResult() instanceof List) || ((List<?>) response.getResult()).size() != batch.size())
+            throw new IllegalStateException("Unexpected result " + response.getResult() + " to a batch of " + batch.size());
+        List<?> responses = (List<?>) response.getResult();
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            CallResponse r = (CallResponse) responses.get(i);
+            r.setNotified(0); // already accounted in the batch
+            r.setStateVersion(response.getStateVersion());
+            if (pending.call.getStateVersion() != response.getStateVersion())
+                r.setState(response.getState());
+            pending.future.complete(r);
+        }
+    }
+
+    private static void fail(List<Pending> batch, Throwable t) {
+        batch.forEach(pending -> pending.future.completeExceptionally(t));
+    }
+
+    private boolean isPrimary(Reference reference) {
+        DistributionManager manager = cache.getAdvancedCache().getDistributionManager();
+        return manager == null || manager.getCacheTopology().getDistribution(reference).isPrimary();
+    }
+
+    private static class Pending {
+
+        private final CallInvoke call;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Pending(CallInvoke call) {
+            this.call = call;
+        }
+
+    }
+
+}
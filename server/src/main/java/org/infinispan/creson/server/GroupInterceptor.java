@@ -0,0 +1,83 @@
+package org.infinispan.creson.server;
+
+import org.infinispan.AdvancedCache;
+import org.infinispan.commands.write.PutKeyValueCommand;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.creson.object.Call;
+import org.infinispan.creson.object.CallGroup;
+import org.infinispan.creson.object.CallResponse;
+import org.infinispan.creson.object.Reference;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.infinispan.util.logging.Log;
+import org.infinispan.util.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits the groups of calls sent by the clients (see <i>Batcher</i>).
+ * Each call of a group is executed on its own object, as if it was received alone,
+ * so that the replicas of an object only apply the calls to that object.
+ * The group itself is never stored.
+ *
+ * @author Pierre Sutra
+ */
+public class GroupInterceptor extends BaseCustomAsyncInterceptor {
+
+    private static final Log log = LogFactory.getLog(GroupInterceptor.class);
+
+    private final AtomicLong groups = new AtomicLong();
+    private AdvancedCache<Reference, Call> callCache;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void start() {
+        callCache = (AdvancedCache<Reference, Call>) cache.getAdvancedCache();
+    }
+
+    @Override
+    public Object visitPutKeyValueCommand(InvocationContext ctx, PutKeyValueCommand command) throws Throwable {
+
+        if (!(command.getValue() instanceof CallGroup)) {
+            return invokeNext(ctx, command);
+        }
+
+        CallGroup group = (CallGroup) command.getValue();
+
+        if (log.isTraceEnabled())
+            log.trace(" Splitting " + group);
+
+        groups.incrementAndGet();
+        List<CompletableFuture<Call>> futures = new ArrayList<>(group.getCalls().size());
+        for (Call call : group.getCalls()) {
+            futures.add(callCache.putAsync(call.getReference(), call)
+                    .exceptionally(t -> failure(call, t)));
+        }
+
+        return asyncValue(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<Call> responses = new ArrayList<>(futures.size());
+            for (CompletableFuture<Call> future : futures) {
+                responses.add(future.join());
+            }
+            CallResponse response = new CallResponse(group.getReference(), group);
+            response.setResult(responses);
+            return response;
+        }));
+    }
+
+    /**
+     * @return the number of groups received.
+     */
+    public long getGroups() {
+        return groups.get();
+    }
+
+    private static CallResponse failure(Call call, Throwable t) {
+        CallResponse response = new CallResponse(call.getReference(), call);
+        response.setResult(t);
+        return response;
+    }
+
+}
@@ -0,0 +1,113 @@
+package org.infinispan.creson.server;
+
+import org.infinispan.commands.write.PutKeyValueCommand;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.creson.object.Call;
+import org.infinispan.creson.object.CallInvoke;
+import org.infinispan.creson.object.Reference;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.infinispan.util.logging.Log;
+import org.infinispan.util.logging.LogFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the calls received from the clients in mailboxes, instead of the HotRod worker threads.
+ * Each mailbox is drained in order by its own thread.
+ * The mutating calls to an object always go to the same mailbox, chosen from the hash of its reference,
+ * while the read-only calls are spread over the mailboxes, as they run in parallel.
+ * <p>
+ * The calls made while executing a call (e.g., to a nested object) run in the mailbox of the caller.
+ *
+ * @author Pierre Sutra
+ */
+public class MailboxInterceptor extends BaseCustomAsyncInterceptor {
+
+    private static final Log log = LogFactory.getLog(MailboxInterceptor.class);
+
+    private static final ThreadLocal<Boolean> draining = ThreadLocal.withInitial(() -> false);
+
+    private final ThreadPoolExecutor[] mailboxes;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param mailboxes the number of mailboxes, that is, of threads executing the calls.
+     */
+    public MailboxInterceptor(int mailboxes) {
+        assert mailboxes > 0;
+        this.mailboxes = new ThreadPoolExecutor[mailboxes];
+        for (int i = 0; i < mailboxes; i++) {
+            String name = "creson-mailbox-" + i;
+            this.mailboxes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(() -> {
+                    draining.set(true);
+                    r.run();
+                }, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Override
+    protected void stop() {
+        for (ThreadPoolExecutor mailbox : mailboxes) {
+            mailbox.shutdown();
+        }
+    }
+
+    @Override
+    public Object visitPutKeyValueCommand(InvocationContext ctx, PutKeyValueCommand command) throws Throwable {
+
+        if (!(command.getValue() instanceof Call) || !ctx.isOriginLocal() || draining.get()) {
+            return invokeNext(ctx, command);
+        }
+
+        Call call = (Call) command.getValue();
+        ThreadPoolExecutor mailbox = mailboxOf(call);
+
+        if (log.isTraceEnabled())
+            log.trace(" Posting " + call + " (" + mailbox.getQueue().size() + " pending)");
+
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        mailbox.execute(() -> { // the next interceptors run in the mailbox
+            try {
+                makeStage(invokeNext(ctx, command)).toCompletableFuture().whenComplete((rv, t) -> {
+                    if (t != null) {
+                        result.completeExceptionally(t);
+                    } else {
+                        result.complete(rv);
+                    }
+                });
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return asyncValue(result);
+    }
+
+    /**
+     * @return the number of calls waiting in the mailbox of <i>reference</i> for its mutating calls.
+     * @see org.infinispan.creson.utils.ConfigurationHelper#getMailboxes(org.infinispan.Cache)
+     */
+    public int getQueueDepth(Reference reference) {
+        return mailboxes[index(reference)].getQueue().size();
+    }
+
+    // internals
+
+    private ThreadPoolExecutor mailboxOf(Call call) {
+        if (call instanceof CallInvoke && CommutingInterceptor.isReadOnly((CallInvoke) call))
+            return mailboxes[Math.floorMod(next.getAndIncrement(), mailboxes.length)];
+        return mailboxes[index(call.getReference())];
+    }
+
+    private int index(Reference reference) {
+        return Math.floorMod(reference.hashCode(), mailboxes.length);
+    }
+
+}
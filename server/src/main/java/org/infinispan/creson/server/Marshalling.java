@@ -1,13 +1,29 @@
 package org.infinispan.creson.server;
 
-import org.infinispan.commons.marshall.Marshaller;
-import org.infinispan.marshall.core.JBossMarshaller;
+import org.infinispan.commons.CacheException;
+import org.infinispan.commons.io.ExposedByteArrayOutputStream;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.commons.marshall.jboss.GenericJBossMarshaller;
+import org.infinispan.util.logging.Log;
+import org.infinispan.util.logging.LogFactory;
+
+import java.io.ObjectOutput;
+import java.util.Arrays;
 
 /**
  * @author Pierre Sutra
  */
 public class Marshalling {
 
+    private static final Log log = LogFactory.getLog(Marshalling.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+    private static final StreamingMarshaller snapshots = new GenericJBossMarshaller();
+    private static final ThreadLocal<ExposedByteArrayOutputStream> buffers =
+            ThreadLocal.withInitial(() -> new ExposedByteArrayOutputStream(INITIAL_BUFFER_SIZE));
+
     private static boolean DEFAULT_BOOLEAN;
     private static byte DEFAULT_BYTE;
     private static short DEFAULT_SHORT;
@@ -37,28 +53,55 @@ public class Marshalling {
         }
     }
 
-    public static byte[] marshall(Object object) {
-        Marshaller marshaller = new JBossMarshaller();
+    /**
+     * The state is written to a buffer of the calling thread, then copied once to an array of the exact size,
+     * which is kept as is for the version of the object and sent to the callers.
+     * A snapshot taken while marshalling another one (e.g., a shared object opened when written) uses a buffer
+     * of its own.
+     *
+     * @return the state of <i>object</i>, in the form read by the clients (see {@link GenericJBossMarshaller}).
+     * @throws CacheException if <i>object</i> cannot be marshalled.
+     */
+    public static byte[] snapshot(Object object) {
+        ExposedByteArrayOutputStream buffer = buffers.get();
+        boolean nested = buffer == null;
+        if (nested) {
+            buffer = new ExposedByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        } else {
+            buffers.set(null);
+        }
         try {
-            if (object instanceof byte[])
-                return (byte[]) object;
-            return marshaller.objectToByteBuffer(object);
+            ObjectOutput output = snapshots.startObjectOutput(buffer, nested, buffer.getRawBuffer().length);
+            try {
+                snapshots.objectToObjectStream(object, output);
+            } finally {
+                snapshots.finishObjectOutput(output);
+            }
+            return Arrays.copyOf(buffer.getRawBuffer(), buffer.size());
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Unable to marshal the state of " + object.getClass().getName(), e);
+            throw new CacheException(e);
+        } finally {
+            if (!nested && buffer.getRawBuffer().length <= MAX_RETAINED_BUFFER_SIZE) {
+                buffer.reset();
+                buffers.set(buffer);
+            } else if (!nested) {
+                buffers.remove(); // a large buffer is not retained
+            }
         }
-        return null;
     }
 
-    public static Object unmarshall(Object object) {
-        Marshaller marshaller = new JBossMarshaller();
+    /**
+     * @return the object whose state is <i>snapshot</i> (see {@link #snapshot(Object)}).
+     * @throws CacheException if <i>snapshot</i> cannot be read.
+     */
+    public static Object restore(byte[] snapshot) {
         try {
-            if (object instanceof byte[])
-                return marshaller.objectFromByteBuffer((byte[]) object);
-            return object;
+            return snapshots.objectFromByteBuffer(snapshot);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Unable to read a state of " + snapshot.length + "B", e);
+            throw new CacheException(e);
         }
-        return null;
     }
 
 }
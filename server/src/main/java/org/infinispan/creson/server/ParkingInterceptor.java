@@ -0,0 +1,218 @@
+package org.infinispan.creson.server;
+
+import org.infinispan.AdvancedCache;
+import org.infinispan.commands.write.PutKeyValueCommand;
+import org.infinispan.context.InvocationContext;
+import org.infinispan.creson.object.Call;
+import org.infinispan.creson.object.CallInvoke;
+import org.infinispan.creson.object.CallResponse;
+import org.infinispan.creson.object.Reference;
+import org.infinispan.distribution.DistributionManager;
+import org.infinispan.interceptors.BaseCustomAsyncInterceptor;
+import org.infinispan.util.logging.Log;
+import org.infinispan.util.logging.LogFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.infinispan.creson.utils.Parking.ALL;
+
+/**
+ * Answers asynchronously the calls that wait for a notification, e.g., <i>Future.get()</i>,
+ * provided that their method is {@link org.infinispan.creson.Parkable}.
+ * Such a call is parked at the node that received it, releasing both the thread and the lock on the object.
+ * It is executed anew once notified.
+ * <p>
+ * The waiters are notified by the calls to their object that this node executes or receives, which covers all the
+ * calls when this node is the primary owner of the object (e.g., with hash-aware clients).
+ * Otherwise, the waiters are also retried periodically, as spurious wake-ups.
+ *
+ * @author Pierre Sutra
+ */
+public class ParkingInterceptor extends BaseCustomAsyncInterceptor {
+
+    private static final Log log = LogFactory.getLog(ParkingInterceptor.class);
+    private static final long RETRY_PERIOD = 1000; // in ms
+
+    private static final ThreadLocal<Boolean> retrying = ThreadLocal.withInitial(() -> false);
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "creson-parking-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<Reference, Deque<Waiter>> waiters = new ConcurrentHashMap<>();
+    private final AtomicLong notifications = new AtomicLong();
+    private ScheduledFuture<?> retries;
+    private AdvancedCache<Reference, Call> callCache;
+
+    public ParkingInterceptor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads the number of threads retrying the waiters.
+     */
+    public ParkingInterceptor(int threads) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "creson-parking");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void start() {
+        callCache = (AdvancedCache<Reference, Call>) cache.getAdvancedCache();
+        retries = scheduler.scheduleWithFixedDelay(this::retryAll, RETRY_PERIOD, RETRY_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void stop() {
+        retries.cancel(false);
+        executor.shutdown();
+    }
+
+    @Override
+    public Object visitPutKeyValueCommand(InvocationContext ctx, PutKeyValueCommand command) throws Throwable {
+
+        if (!(command.getValue() instanceof Call)) {
+            return invokeNext(ctx, command);
+        }
+
+        Call call = (Call) command.getValue();
+
+        if (!ctx.isOriginLocal() || retrying.get() || !(call instanceof CallInvoke)) {
+            return invokeNextThenAccept(ctx, command,
+                    (rCtx, rCommand, rv) -> notify(call.getReference(), rv));
+        }
+
+        long epoch = notifications.get();
+        return invokeNextThenApply(ctx, command, (rCtx, rCommand, rv) -> {
+            notify(call.getReference(), rv);
+            if (!isParked(rv))
+                return rv;
+            Waiter waiter = new Waiter(((CallInvoke) call).withoutConstruct());
+            park(waiter, epoch);
+            return asyncValue(waiter.future);
+        });
+    }
+
+    // internals
+
+    /**
+     * Parks <i>waiter</i>, retrying it at once if a notification occurred since <i>epoch</i>.
+     */
+    private void park(Waiter waiter, long epoch) {
+        Reference reference = waiter.call.getReference();
+
+        if (log.isTraceEnabled())
+            log.trace(" Parking " + waiter.call);
+
+        waiters.compute(reference, (k, queue) -> {
+            if (queue == null)
+                queue = new ArrayDeque<>();
+            queue.add(waiter);
+            return queue;
+        });
+
+        if (notifications.get() != epoch) {
+            boolean[] removed = new boolean[1];
+            waiters.computeIfPresent(reference, (k, queue) -> {
+                removed[0] = queue.remove(waiter);
+                return queue.isEmpty() ? null : queue;
+            });
+            if (removed[0])
+                executor.execute(() -> retry(waiter));
+        }
+    }
+
+    private void notify(Reference reference, Object rv) {
+        if (!(rv instanceof CallResponse) || ((CallResponse) rv).getNotified() == 0)
+            return;
+
+        notifications.incrementAndGet();
+        List<Waiter> woken = take(reference, ((CallResponse) rv).getNotified());
+        if (!woken.isEmpty())
+            executor.execute(() -> woken.forEach(this::retry));
+    }
+
+    private List<Waiter> take(Reference reference, int count) {
+        List<Waiter> taken = new ArrayList<>();
+        waiters.computeIfPresent(reference, (k, queue) -> {
+            while (taken.size() < count && !queue.isEmpty()) {
+                taken.add(queue.poll());
+            }
+            return queue.isEmpty() ? null : queue;
+        });
+        return taken;
+    }
+
+    private void retry(Waiter waiter) {
+        long epoch = notifications.get();
+        CompletableFuture<Call> future;
+        retrying.set(true);
+        try {
+            future = callCache.putAsync(waiter.call.getReference(), waiter.call);
+        } finally {
+            retrying.set(false);
+        }
+        future.whenComplete((rv, t) -> {
+            if (t != null) {
+                waiter.future.completeExceptionally(t);
+            } else if (isParked(rv)) {
+                park(waiter, epoch);
+            } else {
+                waiter.future.complete(rv);
+            }
+        });
+    }
+
+    private void retryAll() {
+        for (Reference reference : waiters.keySet()) {
+            if (!isPrimary(reference)) {
+                for (Waiter waiter : take(reference, ALL)) {
+                    executor.execute(() -> retry(waiter));
+                }
+            }
+        }
+    }
+
+    private boolean isPrimary(Reference reference) {
+        DistributionManager manager = cache.getAdvancedCache().getDistributionManager();
+        return manager == null || manager.getCacheTopology().getDistribution(reference).isPrimary();
+    }
+
+    private static boolean isParked(Object rv) {
+        return rv instanceof CallResponse && ((CallResponse) rv).isParked();
+    }
+
+    private static class Waiter {
+
+        private final CallInvoke call;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Waiter(CallInvoke call) {
+            this.call = call;
+        }
+
+    }
+
+}
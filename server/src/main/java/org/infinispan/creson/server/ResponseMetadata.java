@@ -0,0 +1,179 @@
+package org.infinispan.creson.server;
+
+import org.infinispan.container.versioning.EntryVersion;
+import org.infinispan.creson.object.Reference;
+import org.infinispan.metadata.Metadata;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.infinispan.creson.utils.VarInt.readVarInt;
+import static org.infinispan.creson.utils.VarInt.readVarLong;
+import static org.infinispan.creson.utils.VarInt.writeVarInt;
+import static org.infinispan.creson.utils.VarInt.writeVarLong;
+
+/**
+ * The metadata of the entry of an object, carrying the results to the calls on the object.
+ * At the node that stores the entry, the results are read from its {@link CallResponseCache} when the entry is
+ * marshalled, i.e., upon state transfer or passivation.
+ * The node receiving the entry adds them to its own table before executing a call on the object,
+ * so that a call retried after a change of topology is not executed anew.
+ *
+ * @author Pierre Sutra
+ */
+public class ResponseMetadata implements Metadata, Externalizable {
+
+    private Metadata metadata;
+    private transient CallResponseCache cache;
+    private transient Reference reference;
+    private Map<Long, CallResponseCache.Record> records;
+    private transient volatile boolean restored;
+
+    @Deprecated
+    public ResponseMetadata() {
+    }
+
+    /**
+     * @param metadata the metadata of the entry.
+     * @param cache the table holding the results to the calls on the object.
+     * @param reference the reference of the object.
+     */
+    public ResponseMetadata(Metadata metadata, CallResponseCache cache, Reference reference) {
+        this.metadata = metadata;
+        this.cache = cache;
+        this.reference = reference;
+    }
+
+    /**
+     * Adds the results received with the entry to <i>cache</i>, once.
+     */
+    public void restore(CallResponseCache cache, Reference reference) {
+        if (records == null || restored)
+            return;
+        cache.restore(reference, records);
+        restored = true;
+    }
+
+    @Override
+    public long lifespan() {
+        return metadata.lifespan();
+    }
+
+    @Override
+    public long maxIdle() {
+        return metadata.maxIdle();
+    }
+
+    @Override
+    public EntryVersion version() {
+        return metadata.version();
+    }
+
+    @Override
+    public Metadata.Builder builder() {
+        return new Builder(metadata.builder());
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseMetadata{" + metadata + (records != null ? ", " + records.size() + " session(s)" : "") + "}";
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput objectOutput) throws IOException {
+        objectOutput.writeObject(metadata);
+        Map<Long, CallResponseCache.Record> records = cache != null ? cache.records(reference) : this.records;
+        writeVarInt(objectOutput, records.size());
+        for (Map.Entry<Long, CallResponseCache.Record> entry : records.entrySet()) {
+            CallResponseCache.Record record = entry.getValue();
+            objectOutput.writeLong(entry.getKey());
+            writeVarLong(objectOutput, record.watermark);
+            writeVarInt(objectOutput, record.ids.length);
+            for (int i = 0; i < record.ids.length; i++) {
+                writeVarLong(objectOutput, record.ids[i]);
+                objectOutput.writeObject(record.results[i]);
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput objectInput) throws IOException, ClassNotFoundException {
+        metadata = (Metadata) objectInput.readObject();
+        int sessions = readVarInt(objectInput);
+        records = new HashMap<>(sessions);
+        for (int s = 0; s < sessions; s++) {
+            long callerID = objectInput.readLong();
+            long watermark = readVarLong(objectInput);
+            int count = readVarInt(objectInput);
+            long[] ids = new long[count];
+            Object[] results = new Object[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = readVarLong(objectInput);
+                results[i] = objectInput.readObject();
+            }
+            records.put(callerID, new CallResponseCache.Record(watermark, ids, results));
+        }
+    }
+
+    /**
+     * Keeps the results when the metadata of the entry is rebuilt (e.g., on expiration).
+     */
+    private class Builder implements Metadata.Builder {
+
+        private final Metadata.Builder builder;
+
+        Builder(Metadata.Builder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public Metadata.Builder lifespan(long time, TimeUnit unit) {
+            builder.lifespan(time, unit);
+            return this;
+        }
+
+        @Override
+        public Metadata.Builder lifespan(long time) {
+            builder.lifespan(time);
+            return this;
+        }
+
+        @Override
+        public Metadata.Builder maxIdle(long time, TimeUnit unit) {
+            builder.maxIdle(time, unit);
+            return this;
+        }
+
+        @Override
+        public Metadata.Builder maxIdle(long time) {
+            builder.maxIdle(time);
+            return this;
+        }
+
+        @Override
+        public Metadata.Builder version(EntryVersion version) {
+            builder.version(version);
+            return this;
+        }
+
+        @Override
+        public Metadata build() {
+            ResponseMetadata built = new ResponseMetadata(builder.build(), cache, reference);
+            built.records = records;
+            return built;
+        }
+
+        @Override
+        public Metadata.Builder merge(Metadata metadata) {
+            builder.merge(metadata);
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+package org.infinispan.creson.server;
+
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntriesEvicted;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryPassivated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.annotation.TopologyChanged;
+import org.infinispan.notifications.cachelistener.event.CacheEntriesEvictedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryPassivatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import org.infinispan.notifications.cachelistener.event.TopologyChangedEvent;
+
+/**
+ * Drops what a {@link StateMachineInterceptor} keeps per object (state, version and lock) for the objects that leave
+ * the memory of this node (evicted, passivated or removed), and after a rebalance, for the objects it no longer owns.
+ *
+ * @author Pierre Sutra
+ */
+@Listener
+public class SnapshotListener {
+
+    private final StateMachineInterceptor stateMachine;
+
+    public SnapshotListener(StateMachineInterceptor stateMachine) {
+        this.stateMachine = stateMachine;
+    }
+
+    @CacheEntriesEvicted
+    public void onEvicted(CacheEntriesEvictedEvent<Object, Object> event) {
+        event.getEntries().keySet().forEach(stateMachine::drop);
+    }
+
+    @CacheEntryPassivated
+    public void onPassivated(CacheEntryPassivatedEvent<Object, Object> event) {
+        if (!event.isPre())
+            stateMachine.drop(event.getKey());
+    }
+
+    @CacheEntryRemoved
+    public void onRemoved(CacheEntryRemovedEvent<Object, Object> event) {
+        if (!event.isPre())
+            stateMachine.drop(event.getKey());
+    }
+
+    @TopologyChanged
+    public void onTopologyChanged(TopologyChangedEvent<Object, Object> event) {
+        if (!event.isPre())
+            stateMachine.dropAfterTopologyChange();
+    }
+
+}
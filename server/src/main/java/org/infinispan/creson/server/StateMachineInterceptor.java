@@ -1,36 +1,49 @@
 package org.infinispan.creson.server;
 
-import com.fasterxml.uuid.impl.RandomBasedGenerator;
 import org.infinispan.commands.write.ClearCommand;
 import org.infinispan.commands.write.PutKeyValueCommand;
+import org.infinispan.container.entries.CacheEntry;
 import org.infinispan.context.InvocationContext;
 import org.infinispan.creson.Factory;
 import org.infinispan.creson.object.Call;
+import org.infinispan.creson.object.CallBatch;
 import org.infinispan.creson.object.CallConstruct;
 import org.infinispan.creson.object.CallInvoke;
 import org.infinispan.creson.object.CallResponse;
 import org.infinispan.creson.object.Reference;
+import org.infinispan.creson.utils.ClassMetadata;
 import org.infinispan.creson.utils.Context;
 import org.infinispan.creson.utils.ContextManager;
+import org.infinispan.creson.utils.Parking;
 import org.infinispan.creson.utils.Reflection;
 import org.infinispan.interceptors.impl.ClusteringInterceptor;
 import org.infinispan.util.logging.Log;
 import org.infinispan.util.logging.LogFactory;
 
-import java.util.Random;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import static org.infinispan.creson.server.Marshalling.marshall;
-import static org.infinispan.creson.server.Marshalling.unmarshall;
 import static org.infinispan.creson.utils.Reflection.callObject;
-import static org.infinispan.creson.utils.Reflection.hasReadOnlyMethods;
 
 public class StateMachineInterceptor extends ClusteringInterceptor {
 
     private static final Log log = LogFactory.getLog(StateMachineInterceptor.class);
+    private static final ThreadLocal<Frames> frames = ThreadLocal.withInitial(Frames::new);
 
     private Factory factory;
     private CallResponseCache responseCache = new CallResponseCache();
     private boolean withIdempotence;
+    private ConcurrentMap<Reference, AtomicLong> versions = new ConcurrentHashMap<>();
+    private ConcurrentMap<Reference, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+    private ConcurrentMap<Reference, Snapshot> snapshots = new ConcurrentHashMap<>();
 
     @Override
     public java.lang.Object visitClearCommand(InvocationContext ctx, ClearCommand command) throws Throwable {
@@ -38,6 +51,9 @@ public class StateMachineInterceptor extends ClusteringInterceptor {
         log.trace(" Clearing all");
 
         responseCache.clearAll();
+        versions.clear();
+        locks.clear();
+        snapshots.clear();
         return super.visitClearCommand(ctx, command);
     }
 
@@ -54,111 +70,378 @@ public class StateMachineInterceptor extends ClusteringInterceptor {
 
         Reference reference = call.getReference();
         CallResponse response;
-        Object object = ctx.lookupEntry(reference).getValue();
+        CacheEntry entry = ctx.lookupEntry(reference);
+        Object object = entry.getValue();
+
+        // results received with the object (e.g., upon state transfer)
+        if (withIdempotence && entry.getMetadata() instanceof ResponseMetadata)
+            ((ResponseMetadata) entry.getMetadata()).restore(responseCache, reference);
 
         // FIXME elasticity
         // assert (call instanceof CallConstruct) | (object!=null);
 
         if (log.isTraceEnabled()) {
-            log.trace(" Rcv [" + call.toString() + ", key=" + reference+", call=" + call.getCallID() + "["+responseCache.contains(call)+"], caller=" + call.getCallerID() + "]");
+            log.trace(" Rcv [" + call.toString() + ", key=" + reference+", call=" + call.getCallID() + ", caller=" + call.getCallerID() + "]");
         }
 
-        response = new CallResponse(reference ,call);
+        CallResponse cached;
+        Object initial = object;
+
+        // read-only calls share the object, the others (even commutative ones) have it exclusively
+        boolean isReadOnly = object != null && !isMutating(call, object);
+        ReentrantReadWriteLock rwLock;
+        Lock lock;
+        while (true) {
+            rwLock = locks.get(reference);
+            if (rwLock == null)
+                rwLock = locks.computeIfAbsent(reference, k -> new ReentrantReadWriteLock());
+            lock = isReadOnly ? rwLock.readLock() : rwLock.writeLock();
+            lock.lock();
+            if (locks.get(reference) == rwLock)
+                break;
+            lock.unlock(); // dropped meanwhile (see drop)
+        }
+        try {
+
+            if (call instanceof CallBatch) {
+
+                response = new CallResponse(reference, call);
+                List<CallResponse> responses = new ArrayList<>();
+                for (Call c : ((CallBatch) call).getCalls()) {
+                    CallResponse r = withIdempotence ? responseCache.get(c) : null;
+                    if (r != null) {
+                        responses.add(r);
+                    } else {
+                        r = new CallResponse(reference, c);
+                        object = apply(c, reference, object, r, ((CallBatch) call).mayPark(), true);
+                        responses.add(r);
+                        response.setNotified((int) Math.min(Parking.ALL, (long) response.getNotified() + r.getNotified()));
+                    }
+                }
+                response.setResult(responses);
 
-        if (withIdempotence && responseCache.contains(call)) {
+            } else if (withIdempotence && (cached = responseCache.get(call)) != null) {
 
-            return responseCache.get(call);
+                return cached;
 
-        } else {
+            } else {
 
-            try {
+                response = new CallResponse(reference, call);
+                object = apply(call, reference, object, response, true, !isReadOnly);
 
-                ContextManager.set(
-                        new Context(
-                                call.getCallerID(),
-                                new RandomBasedGenerator(
-                                        new Random(call.getCallID().getLeastSignificantBits()
-                                                + call.getCallID().getMostSignificantBits())),
-                                factory));
+            }
 
-                if (call instanceof CallInvoke) {
+            boolean isMutating = object != initial || (!response.isParked() && !isReadOnly);
 
-                    CallInvoke invocation = (CallInvoke) call;
+            long version = 0;
+            if (ClassMetadata.of(reference.getClazz()).hasReadOnlyMethods()) {
+                version = nextVersion(reference, isMutating);
+                response.setStateVersion(version);
+            }
 
-                    // FIXME elasticity
-                    // assert (object != null);
-                    if (object == null ) {
-                        object = Reflection.open(reference, new Object[0]);
-                    }
+            if (isMutating) {
+                PutKeyValueCommand clone = cf.buildPutKeyValueCommand(
+                        command.getKey(),
+                        object,
+                        command.getSegment(),
+                        withIdempotence
+                                ? new ResponseMetadata(command.getMetadata(), responseCache, reference)
+                                : command.getMetadata(),
+                        command.getFlagsBitSet());
+                invokeNext(ctx, clone);
+            } else {
+                // neither stored nor sent to the backup owners
+                command.fail();
+            }
 
-                    java.lang.Object[] args = invocation.arguments;
+            // ship the state if the caller does not hold it; read-only calls may proceed meanwhile
+            // the backups skip this, as their response does not reach the caller
+            if (version != 0 && call.getStateVersion() != version && isPrimary(reference)) {
+                if (!isReadOnly) { // downgrade
+                    rwLock.readLock().lock();
+                    lock.unlock();
+                    lock = rwLock.readLock();
+                }
+                response.setState(snapshot(reference, version, object));
+            }
 
-                    java.lang.Object result;
+        } finally {
+            lock.unlock();
+        }
 
-                    try {
+        if (log.isTraceEnabled()) {
+            log.trace(" Executed [" + call.toString() + "] = "+response.toString());
+        }
 
-                        synchronized (object) { // synchronization contract
-                            result = callObject(object, invocation.method, args);
-                        }
+        return response;
+    }
 
-                        response.setResult(result);
+    /**
+     * Applies <i>call</i> to <i>object</i>, filling <i>response</i> with its outcome.
+     * If <i>mayPark</i> is set, a call waiting for a notification is parked.
+     * If <i>exclusive</i> is set, the call holds the monitor of the object (synchronization contract).
+     *
+     * @return the object once the call is applied (a new one in case of a construction)
+     */
+    private Object apply(Call call, Reference reference, Object object, CallResponse response, boolean mayPark, boolean exclusive) throws Exception {
+
+        // construct-and-invoke
+        if (call instanceof CallInvoke && ((CallInvoke) call).getConstruct() != null) {
+            CallConstruct construct = ((CallInvoke) call).getConstruct();
+            CallResponse constructed = new CallResponse(reference, construct);
+            object = apply(construct, reference, object, constructed, false, true);
+            if (constructed.getResult() instanceof Throwable) {
+                response.setResult(constructed.getResult());
+                return object;
+            }
+        }
 
-                    } catch (Throwable e) {
-                        response.setResult(e);
-                    }
+        Frames frames = StateMachineInterceptor.frames.get();
+        Context previous = ContextManager.get();
+        ContextManager.set(frames.push(session(call), factory));
+        try {
 
+            if (call instanceof CallInvoke) {
 
-                } else if (call instanceof CallConstruct) {
+                CallInvoke invocation = (CallInvoke) call;
 
-                    CallConstruct callConstruct = (CallConstruct) call;
+                if (invocation.methodId >= 0 && invocation.schema != ClassMetadata.of(reference.getClazz()).getSchema()) {
+                    response.setResult(new IllegalStateException(
+                            "The methods of " + reference.getClazz() + " differ at the caller and at the server."));
+                    return object;
+                }
+
+                // FIXME elasticity
+                // assert (object != null);
+                if (object == null ) {
+                    object = Reflection.open(reference, new Object[0]);
+                }
 
-                    if (object == null | callConstruct.getForceNew()) {
+                java.lang.Object[] args = invocation.arguments;
 
-                        if (log.isTraceEnabled())
-                            log.trace(" New [" + reference + "]");
+                java.lang.Object result;
 
-                        object = Reflection.open(reference, callConstruct.getInitArgs());
-                        if (withIdempotence) responseCache.clear(call);
+                // the state before a parkable call, restored if the call parks after writing
+                byte[] before = mayPark && isParkable(invocation, object) ? Marshalling.snapshot(object) : null;
+                Parking parking = Parking.open(before != null);
 
+                try {
+
+                    if (exclusive) {
+                        synchronized (object) { // synchronization contract
+                            result = callObject(object, invocation.methodId, invocation.method, args);
+                        }
+                    } else {
+                        result = callObject(object, invocation.methodId, invocation.method, args);
                     }
 
+                    response.setResult(result);
+
+                } catch (Throwable e) {
+                    response.setResult(e);
+                } finally {
+                    response.setNotified(parking.close());
+                }
+
+                if (parking.isParked()) {
+                    response.setParked(true);
                     response.setResult(null);
+                    if (!Arrays.equals(before, Marshalling.snapshot(object)))
+                        object = Marshalling.restore(before);
+                }
+
 
+            } else if (call instanceof CallConstruct) {
+
+                CallConstruct callConstruct = (CallConstruct) call;
+
+                if (callConstruct.getSchema() != ClassMetadata.of(reference.getClazz()).getSchema()) {
+                    response.setResult(new IllegalStateException(
+                            "The methods of " + reference.getClazz() + " differ at the caller and at the server."));
+                    return object;
                 }
 
-            } catch (Exception e) {
-                throw e;
+                if (object == null | callConstruct.getForceNew()) {
+
+                    if (log.isTraceEnabled())
+                        log.trace(" New [" + reference + "]");
+
+                    object = Reflection.open(reference, callConstruct.getInitArgs());
+                    if (withIdempotence) responseCache.clear(call);
+
+                }
+
+                response.setResult(null);
+
             }
 
-        } // end compute return value
+        } finally {
+            frames.pop();
+            ContextManager.set(previous);
+        }
 
         // save return value
-        if (withIdempotence) responseCache.put(call,response);
-
-        // save state if required
-        if (hasReadOnlyMethods(reference.getClazz())) { // FIXME state = byte array
-            synchronized (object) { // synchronization contract
-                byte[] buf = marshall(object);
-                response.setState(unmarshall(buf));
-                if (log.isTraceEnabled()) {
-                    log.trace(" keeping state "+buf.length+"B");
-                }
+        if (withIdempotence && !response.isParked()) responseCache.put(call,response);
+
+        return object;
+    }
+
+    /**
+     * Versions are local to a replica, and they start at a random value.
+     * Thus, a client switching replica fetches the state anew.
+     *
+     * @return the version of the state of the object after a call.
+     */
+    private long nextVersion(Reference reference, boolean isMutating) {
+        AtomicLong version = versions.get(reference);
+        if (version == null) // concurrent read-only calls
+            version = versions.computeIfAbsent(reference, k -> new AtomicLong((ThreadLocalRandom.current().nextLong() >>> 1) | 1));
+        if (isMutating) { // exclusive
+            snapshots.remove(reference);
+            long next = version.get() + 1;
+            version.set(next == 0 ? 1 : next);
+        }
+        return version.get();
+    }
+
+    /**
+     * The state of an object is marshalled once per version, and the bytes are sent as is to the callers.
+     * They are softly referenced, thus reclaimed under memory pressure, and dropped when the object leaves this node
+     * or this node is no longer its primary owner (see {@link SnapshotListener}).
+     *
+     * @return the state of <i>object</i> at <i>version</i>.
+     */
+    private byte[] snapshot(Reference reference, long version, Object object) {
+        Snapshot snapshot = snapshots.get(reference);
+        byte[] state = snapshot == null || snapshot.version != version ? null : snapshot.state.get();
+        if (state == null) {
+            state = Marshalling.snapshot(object);
+            snapshots.put(reference, new Snapshot(version, state));
+            if (log.isTraceEnabled()) {
+                log.trace(" keeping state " + state.length + "B (v" + version + ")");
             }
         }
+        return state;
+    }
 
-        PutKeyValueCommand clone = cf.buildPutKeyValueCommand(
-                command.getKey(),
-                object,
-                command.getSegment(),
-                command.getMetadata(),
-                command.getFlagsBitSet());
-        invokeNext(ctx, clone);
+    /**
+     * Forgets the state, the version and the lock of an object that left this node.
+     */
+    void drop(Object key) {
+        snapshots.remove(key);
+        versions.remove(key);
+        if (key instanceof Reference)
+            dropLock((Reference) key);
+    }
 
-        if (log.isTraceEnabled()) {
-            log.trace(" Executed [" + call.toString() + "] = "+response.toString());
+    /**
+     * Forgets the states of the objects this node is no longer the primary owner of,
+     * and the versions and locks of the objects it no longer owns.
+     */
+    void dropAfterTopologyChange() {
+        snapshots.keySet().removeIf(reference -> !isPrimary(reference));
+        versions.keySet().removeIf(reference -> !isOwner(reference));
+        for (Reference reference : locks.keySet()) {
+            if (!isOwner(reference))
+                dropLock(reference);
+        }
+    }
+
+    /**
+     * A lock is dropped only when no call holds or waits for it; a call that acquired it meanwhile retries.
+     */
+    private void dropLock(Reference reference) {
+        locks.computeIfPresent(reference, (k, lock) ->
+                lock.isWriteLocked() || lock.getReadLockCount() > 0 || lock.hasQueuedThreads() ? lock : null);
+    }
+
+    private static boolean isParkable(CallInvoke invocation, Object object) {
+        try {
+            return ClassMetadata.of(object.getClass()).findMethod(invocation.methodId, invocation.method, invocation.arguments).isParkable();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private boolean isPrimary(Reference reference) {
+        return distributionManager == null
+                || distributionManager.getCacheTopology().getDistribution(reference).isPrimary();
+    }
+
+    private boolean isOwner(Reference reference) {
+        return distributionManager == null
+                || distributionManager.getCacheTopology().getDistribution(reference).isWriteOwner();
+    }
+
+    /**
+     * A call is known to leave the object unchanged if its method is annotated with @ReadOnly.
+     *
+     * @return false if <i>call</i> is known to leave <i>object</i> unchanged.
+     */
+    private boolean isMutating(Call call, Object object) {
+        if (call instanceof CallBatch) {
+            for (Call c : ((CallBatch) call).getCalls()) {
+                if (isMutating(c, object))
+                    return true;
+            }
+            return false;
+        }
+        if (call instanceof CallInvoke && ((CallInvoke) call).getConstruct() == null) {
+            CallInvoke invocation = (CallInvoke) call;
+            try {
+                return !ClassMetadata.of(object.getClass()).findMethod(invocation.methodId, invocation.method, invocation.arguments).isReadOnly();
+            } catch (Exception e) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a session identifier for the calls made while executing <i>call</i>,
+     * identical at all the replicas.
+     */
+    private static long session(Call call) {
+        long z = call.getCallerID() * 0x9E3779B97F4A7C15L + call.getCallID();
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * The contexts of the calls executed by a thread, reused from one call to the next.
+     * Calls nest when an object calls another one stored at the same node.
+     */
+    private static class Frames {
+
+        private final List<Context> contexts = new ArrayList<>();
+        private int depth;
+
+        Context push(long callerID, Factory factory) {
+            if (depth == contexts.size()) {
+                contexts.add(new Context(callerID, factory));
+            } else {
+                contexts.get(depth).reset(callerID, factory);
+            }
+            return contexts.get(depth++);
+        }
+
+        void pop() {
+            depth--;
+        }
+
+    }
+
+    private static class Snapshot {
+
+        private final long version;
+        private final SoftReference<byte[]> state;
+
+        Snapshot(long version, byte[] state) {
+            this.version = version;
+            this.state = new SoftReference<>(state);
         }
 
-        return response;
     }
 
     public void setup(Factory factory, boolean useIdempotence){
@@ -1,12 +1,24 @@
 package org.infinispan.creson.utils;
 
+import org.infinispan.Cache;
+import org.infinispan.commons.marshall.AdvancedExternalizer;
 import org.infinispan.configuration.cache.CacheMode;
 import org.infinispan.configuration.cache.ConfigurationBuilder;
 import org.infinispan.configuration.cache.Index;
 import org.infinispan.configuration.cache.SingleFileStoreConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
 import org.infinispan.creson.Factory;
+import org.infinispan.creson.object.Externalizers;
+import org.infinispan.creson.server.CommutingInterceptor;
+import org.infinispan.creson.server.GroupInterceptor;
+import org.infinispan.creson.server.GroupCommitInterceptor;
+import org.infinispan.creson.server.MailboxInterceptor;
+import org.infinispan.creson.server.ParkingInterceptor;
+import org.infinispan.creson.server.SnapshotListener;
 import org.infinispan.creson.server.StateMachineInterceptor;
 import org.infinispan.interceptors.impl.CallInterceptor;
+import org.infinispan.interceptors.impl.InvocationContextInterceptor;
+import org.infinispan.interceptors.locking.NonTransactionalLockingInterceptor;
 import org.infinispan.manager.EmbeddedCacheManager;
 import org.infinispan.transaction.TransactionMode;
 
@@ -17,6 +29,16 @@ import static org.infinispan.creson.Factory.CRESON_CACHE_NAME;
  */
 public class ConfigurationHelper {
 
+    /**
+     * Registers the externalizers of the calls with the marshaller of a cache manager, before it is created.
+     */
+    public static GlobalConfigurationBuilder addExternalizers(GlobalConfigurationBuilder builder) {
+        for (AdvancedExternalizer<?> externalizer : Externalizers.all()) {
+            builder.serialization().addAdvancedExternalizer(externalizer);
+        }
+        return builder;
+    }
+
     public static void installCreson(
             EmbeddedCacheManager manager,
             CacheMode mode,
@@ -27,13 +49,32 @@ public class ConfigurationHelper {
             boolean purge,
             boolean withIndexing,
             boolean withIdempotence) {
+        installCreson(manager, mode, replicationFactor, maxEntries, withPassivation, storagePath, purge, withIndexing,
+                withIdempotence, 0);
+    }
+
+    /**
+     * @param mailboxes number of mailboxes executing the calls received from the clients,
+     *                  or 0 to execute them in the HotRod worker threads.
+     */
+    public static void installCreson(
+            EmbeddedCacheManager manager,
+            CacheMode mode,
+            int replicationFactor,
+            long maxEntries,
+            boolean withPassivation,
+            String storagePath,
+            boolean purge,
+            boolean withIndexing,
+            boolean withIdempotence,
+            int mailboxes) {
 
         manager.getClassWhiteList().addRegexps(".*");
 
         ConfigurationBuilder builder = new ConfigurationBuilder();
         builder.clustering().cacheMode(mode);
         builder.transaction().transactionMode(TransactionMode.NON_TRANSACTIONAL);
-        builder.compatibility().enabled(true); // for HotRod
+        builder.compatibility().enabled(true).marshaller(new CresonMarshaller()); // for HotRod
         builder.expiration().lifespan(-1);
         builder.memory().size(maxEntries);
 
@@ -41,6 +82,23 @@ public class ConfigurationHelper {
         StateMachineInterceptor stateMachineInterceptor = new StateMachineInterceptor();
         builder.customInterceptors().addInterceptor().before(CallInterceptor.class).interceptor(stateMachineInterceptor);
 
+        // parking of blocking calls, before the locks are acquired
+        builder.customInterceptors().addInterceptor().after(InvocationContextInterceptor.class).interceptor(new ParkingInterceptor());
+
+        // groups of calls to distinct objects, split before anything else
+        builder.customInterceptors().addInterceptor().before(ParkingInterceptor.class).interceptor(new GroupInterceptor());
+
+        // mailboxes
+        if (mailboxes > 0) {
+            builder.customInterceptors().addInterceptor().after(ParkingInterceptor.class).interceptor(new MailboxInterceptor(mailboxes));
+        }
+
+        // group commit, before the locks are acquired
+        builder.customInterceptors().addInterceptor().before(NonTransactionalLockingInterceptor.class).interceptor(new GroupCommitInterceptor());
+
+        // calls that commute, before the locks are acquired
+        builder.customInterceptors().addInterceptor().before(NonTransactionalLockingInterceptor.class).interceptor(new CommutingInterceptor());
+
         // clustering
         builder.clustering()
                 .stateTransfer().fetchInMemoryState(true)
@@ -69,8 +127,24 @@ public class ConfigurationHelper {
 
         // installation
         manager.defineConfiguration(CRESON_CACHE_NAME,builder.build());
-        stateMachineInterceptor.setup(Factory.forCache(manager.getCache(CRESON_CACHE_NAME)),withIdempotence);
+        Cache<Object, Object> cache = manager.getCache(CRESON_CACHE_NAME);
+        stateMachineInterceptor.setup(Factory.forCache(cache),withIdempotence);
+        cache.addListener(new SnapshotListener(stateMachineInterceptor));
+
+    }
+
+    /**
+     * @return the mailboxes executing the calls received by <i>cache</i>, or null if it has none.
+     */
+    public static MailboxInterceptor getMailboxes(Cache<?, ?> cache) {
+        return cache.getAdvancedCache().getAsyncInterceptorChain().findInterceptorWithClass(MailboxInterceptor.class);
+    }
 
+    /**
+     * @return the interceptor splitting the groups of calls received by <i>cache</i>.
+     */
+    public static GroupInterceptor getGroupInterceptor(Cache<?, ?> cache) {
+        return cache.getAdvancedCache().getAsyncInterceptorChain().findInterceptorWithClass(GroupInterceptor.class);
     }
 
 }
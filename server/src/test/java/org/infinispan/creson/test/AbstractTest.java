@@ -1,27 +1,56 @@
 package org.infinispan.creson.test;
 
-import com.fasterxml.uuid.Generators;
-import com.fasterxml.uuid.impl.RandomBasedGenerator;
 import javassist.util.proxy.Proxy;
 import org.infinispan.Cache;
+import org.infinispan.client.hotrod.RemoteCache;
 import org.infinispan.commons.api.BasicCache;
 import org.infinispan.commons.api.BasicCacheContainer;
 import org.infinispan.commons.marshall.Marshaller;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.commons.marshall.jboss.GenericJBossMarshaller;
 import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.container.entries.InternalCacheEntry;
+import org.infinispan.creson.Compression;
 import org.infinispan.creson.Factory;
 import org.infinispan.creson.Shared;
+import org.infinispan.creson.container.RetryPolicy;
+import org.infinispan.creson.object.Call;
+import org.infinispan.creson.object.CallInvoke;
+import org.infinispan.creson.object.CallResponse;
+import org.infinispan.creson.object.Reference;
+import org.infinispan.creson.server.CallResponseCache;
+import org.infinispan.creson.server.MailboxInterceptor;
+import org.infinispan.creson.server.ResponseMetadata;
+import org.infinispan.creson.utils.ClassMetadata;
+import org.infinispan.creson.utils.ConfigurationHelper;
 import org.infinispan.creson.utils.Context;
 import org.infinispan.creson.utils.ContextManager;
-import org.infinispan.creson.utils.ID;
+import org.infinispan.creson.utils.CresonMarshaller;
+import org.infinispan.creson.utils.Encoding;
+import org.infinispan.creson.utils.EntitySerializer;
+import org.infinispan.creson.utils.Reflection;
+import org.infinispan.creson.utils.VarInt;
 import org.infinispan.manager.EmbeddedCacheManager;
 import org.infinispan.marshall.core.JBossMarshaller;
+import org.infinispan.metadata.Metadata;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
 import org.infinispan.test.MultipleCacheManagersTest;
 import org.infinispan.test.TestingUtil;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -30,10 +59,15 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
 
 import static org.infinispan.creson.Factory.CRESON_CACHE_NAME;
 import static org.testng.Assert.assertTrue;
@@ -48,6 +82,9 @@ public abstract class AbstractTest extends MultipleCacheManagersTest {
     protected static final int NCALLS = 5000;
     protected static final long MAX_ENTRIES = -1;
     protected static final int REPLICATION_FACTOR = 2;
+    protected static final int MAILBOXES = 4;
+    protected static final int MAX_NANOS_PER_LOCAL_CALL = 5 * 1000; // about 400ns, a remote call taking 100x more
+    protected static final int MAX_BYTES_PER_CALL = 4600; // at the primary, for a mutating call (about 4.2KB)
     protected static final int NMANAGERS = 3;
     protected static final boolean PASSIVATION = false;
     protected static final String PERSISTENT_STORAGE_DIR = "/tmp/creson-storage";
@@ -73,6 +110,128 @@ public abstract class AbstractTest extends MultipleCacheManagersTest {
 
     }
 
+    @Test(groups = {"creson"})
+    public void asyncInvocation() throws Exception {
+
+        BasicCacheContainer cacheManager = containers().iterator().next();
+        BasicCache<Object, Object> cache = cacheManager.getCache(CRESON_CACHE_NAME);
+        Factory factory = Factory.forCache(cache);
+
+        Set<Integer> set = factory.getInstanceOf(HashSet.class, "asyncSet");
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        int n = 100;
+        for (int i = 0; i < n; i++) {
+            futures.add(factory.invokeAsync(set, "add", i));
+        }
+        for (CompletableFuture<Boolean> future : futures) {
+            assert future.get();
+        }
+        assert set.size() == n;
+
+        CompletableFuture<Object> failed = factory.invokeAsync(set, "unknown");
+        try {
+            failed.get();
+            assert false;
+        } catch (ExecutionException e) {
+            // expected
+        }
+
+        // typed
+        CounterObject counter = factory.getInstanceOf(CounterObject.class, "asyncCounter");
+        List<CompletableFuture<Integer>> increments = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            increments.add(factory.invokeAsync(counter, CounterObject::increment));
+        }
+        Set<Integer> values = new HashSet<>();
+        for (CompletableFuture<Integer> future : increments) {
+            values.add(future.get());
+        }
+        assert values.size() == n;
+        factory.runAsync(counter, c -> c.add(1)).get();
+        assert counter.tally() == n + 1;
+
+    }
+
+    @Test(groups = {"creson"})
+    public void asyncTimeout() throws Exception {
+
+        BasicCacheContainer cacheManager = containers().iterator().next();
+        BasicCache<Object, Object> cache = cacheManager.getCache(CRESON_CACHE_NAME);
+        Factory factory = Factory.forCache(cache);
+
+        RetryPolicy policy = factory.getRetryPolicy();
+        factory.setRetryPolicy(new RetryPolicy(2, 10, 100, 0.99, 2, 1, 10));
+        SemaphoreObject semaphore = factory.getInstanceOf(SemaphoreObject.class, "asyncTimeout");
+        factory.setRetryPolicy(policy);
+
+        // no response ever comes, as the call waits for a permit
+        CompletableFuture<Void> future = factory.invokeAsync(semaphore, "acquire");
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            assert false;
+        } catch (ExecutionException e) {
+            assert e.getCause() instanceof TimeoutException;
+        }
+
+        semaphore.release(2); // unblocks the two attempts
+
+    }
+
+    @Test(groups = {"creson"})
+    public void batching() throws Exception {
+
+        BasicCacheContainer cacheManager = containers().iterator().next();
+        BasicCache<Object, Object> cache = cacheManager.getCache(CRESON_CACHE_NAME);
+        Factory factory = Factory.forCache(cache);
+
+        factory.setBatching(10, 1, TimeUnit.MILLISECONDS);
+        Set<Integer> set = factory.getInstanceOf(HashSet.class, "batchedSet");
+        factory.setBatching(1, 0, TimeUnit.MILLISECONDS);
+
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        int n = 105;
+        for (int i = 0; i < n; i++) {
+            futures.add(factory.invokeAsync(set, "add", i));
+        }
+        for (CompletableFuture<Boolean> future : futures) {
+            assert future.get();
+        }
+        assert set.size() == n;
+        assert !set.add(0);
+
+        // calls to distinct objects, batched together
+        factory.setBatching(50, 1, TimeUnit.MILLISECONDS);
+        List<Set<Integer>> sets = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sets.add(factory.getInstanceOf(HashSet.class, "batchedSet" + i));
+        }
+        factory.setBatching(1, 0, TimeUnit.MILLISECONDS);
+
+        long groups = 0;
+        for (EmbeddedCacheManager manager : cacheManagers) {
+            groups -= ConfigurationHelper.getGroupInterceptor(manager.getCache(CRESON_CACHE_NAME)).getGroups();
+        }
+
+        futures.clear();
+        for (int i = 0; i < n; i++) {
+            futures.add(factory.invokeAsync(sets.get(i % sets.size()), "add", i));
+        }
+        for (CompletableFuture<Boolean> future : futures) {
+            assert future.get();
+        }
+        int total = 0;
+        for (Set<Integer> s : sets) {
+            total += s.size();
+        }
+        assert total == n;
+
+        for (EmbeddedCacheManager manager : cacheManagers) {
+            groups += ConfigurationHelper.getGroupInterceptor(manager.getCache(CRESON_CACHE_NAME)).getGroups();
+        }
+        assert groups > 0 && groups < n; // the calls of a flush travel together
+
+    }
+
     @Test(groups = {"creson", "stress"})
     public void basePerformance() throws Exception {
 
@@ -153,6 +312,192 @@ public abstract class AbstractTest extends MultipleCacheManagersTest {
         assert field.equals("something");
     }
 
+    @Test(groups = {"creson"})
+    public void versionedReadOptimization() throws Exception {
+
+        Iterator<BasicCacheContainer> it = containers().iterator();
+        Factory factory1 = Factory.forCache(it.next().getCache(CRESON_CACHE_NAME));
+        Factory factory2 = Factory.forCache(it.next().getCache(CRESON_CACHE_NAME));
+
+        CounterObject counter1 = factory1.getInstanceOf(CounterObject.class, "versioned", true, false, false);
+        CounterObject counter2 = factory2.getInstanceOf(CounterObject.class, "versioned", true, false, false);
+
+        assert counter1.tally() == 0; // remote, fetches the state
+        assert counter1.tally() == 0; // local
+        assert counter2.increment() == 1;
+        assert counter2.tally() == 1;
+        assert counter1.increment() == 2;
+        assert counter1.tally() == 2;
+        assert counter2.increment() == 3;
+        assert counter2.tally() == 3;
+
+    }
+
+    @Test(groups = {"creson"})
+    public void leasedReadOptimization() throws Exception {
+
+        Iterator<BasicCacheContainer> it = containers().iterator();
+        BasicCache<Object, Object> cache1 = it.next().getCache(CRESON_CACHE_NAME);
+        Factory factory1 = Factory.forCache(cache1);
+        Factory factory2 = Factory.forCache(it.next().getCache(CRESON_CACHE_NAME));
+
+        // remote caches push invalidations, thus the lease may be long
+        long lease = cache1 instanceof RemoteCache ? 60000 : 200;
+        CounterObject counter1 = factory1.getInstanceOf(CounterObject.class, "leased", true, lease, false, false);
+        CounterObject counter2 = factory2.getInstanceOf(CounterObject.class, "leased", true, false, false);
+
+        assert counter1.tally() == 0; // remote, fetches the state
+        assert counter1.tally() == 0; // local
+        assert counter2.increment() == 1;
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (counter1.tally() != 1) {
+            assert System.currentTimeMillis() < deadline;
+            Thread.sleep(10);
+        }
+        assert counter1.tally() == 1;
+
+    }
+
+    @Test(groups = {"creson"})
+    public void readOnlyCalls() throws Exception {
+
+        Factory factory = Factory.forCache(containers().iterator().next().getCache(CRESON_CACHE_NAME));
+        CounterObject counter = factory.getInstanceOf(CounterObject.class, "readOnly", false, false, false);
+        assert counter.increment() == 1;
+
+        ModificationCounter listener = new ModificationCounter();
+        for (EmbeddedCacheManager manager : cacheManagers) {
+            manager.getCache(CRESON_CACHE_NAME).addListener(listener);
+        }
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                assert counter.tally() == 1;
+            }
+            assert listener.count.get() == 0 : listener.count.get() + " modification(s)";
+
+            assert counter.increment() == 2;
+            assert listener.count.get() > 0;
+        } finally {
+            for (EmbeddedCacheManager manager : cacheManagers) {
+                manager.getCache(CRESON_CACHE_NAME).removeListener(listener);
+            }
+        }
+
+    }
+
+    @Test(groups = {"creson"})
+    public void concurrentReads() throws Exception {
+
+        Factory factory = Factory.forCache(containers().iterator().next().getCache(CRESON_CACHE_NAME));
+        RegisterObject register = factory.getInstanceOf(RegisterObject.class, "concurrentReads", false, false, false);
+        register.write(1);
+
+        int readers = 8;
+        long millis = 500;
+        ExecutorService service = Executors.newFixedThreadPool(readers);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < readers; i++) {
+                futures.add(service.submit(() -> register.read(millis)));
+            }
+            for (Future<Integer> future : futures) {
+                assert future.get() == 1;
+            }
+            long duration = System.currentTimeMillis() - start;
+            assert duration < readers * millis : "reads took " + duration + "ms"; // some of them overlap
+        } finally {
+            service.shutdown();
+        }
+
+        register.write(2);
+        assert register.read(0) == 2;
+
+    }
+
+    @Test(groups = {"creson"})
+    public void groupCommit() throws Exception {
+
+        Factory factory = Factory.forCache(containers().iterator().next().getCache(CRESON_CACHE_NAME));
+        CounterObject counter = factory.getInstanceOf(CounterObject.class, "groupCommit", false, false, false);
+
+        int clients = 10;
+        int calls = 100;
+        ExecutorService service = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Set<Integer>>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                futures.add(service.submit(() -> {
+                    Set<Integer> values = new HashSet<>();
+                    for (int j = 0; j < calls; j++) {
+                        values.add(counter.increment());
+                    }
+                    return values;
+                }));
+            }
+            Set<Integer> values = new HashSet<>();
+            for (Future<Set<Integer>> future : futures) {
+                values.addAll(future.get());
+            }
+            assert values.size() == clients * calls; // each call has its own response
+        } finally {
+            service.shutdown();
+        }
+
+        assert counter.tally() == clients * calls;
+
+    }
+
+    @Test(groups = {"creson"})
+    public void commutativeCalls() throws Exception {
+
+        Factory factory = Factory.forCache(containers().iterator().next().getCache(CRESON_CACHE_NAME));
+        CounterObject counter = factory.getInstanceOf(CounterObject.class, "commutative", false, false, false);
+        assert counter.increment() == 1;
+
+        int clients = 10;
+        int calls = 100;
+        ExecutorService service = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                int client = i;
+                futures.add(service.submit(() -> {
+                    for (int j = 0; j < calls; j++) {
+                        if (client == 0 && j % 10 == 0) {
+                            counter.increment(); // not commutative
+                        } else {
+                            counter.add(1);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            service.shutdown();
+        }
+
+        assert counter.tally() == 1 + clients * calls;
+
+        // the replicas converge
+        Reference reference = new Reference<>(CounterObject.class, "commutative");
+        int replicas = 0;
+        for (EmbeddedCacheManager manager : cacheManagers) {
+            InternalCacheEntry entry = manager.getCache(CRESON_CACHE_NAME).getAdvancedCache().getDataContainer().get(reference);
+            if (entry != null) {
+                assert ((CounterObject) entry.getValue()).count == 1 + clients * calls : entry.getValue();
+                replicas++;
+            }
+        }
+        assert replicas == REPLICATION_FACTOR;
+
+    }
+
     @Test(groups = {"creson", "stress"})
     public void advancedReadOptimization() throws Exception {
 
@@ -172,6 +517,334 @@ public abstract class AbstractTest extends MultipleCacheManagersTest {
 
     }
 
+    @Test(groups = {"creson", "stress"})
+    public void proxyDispatch() throws Exception {
+
+        BasicCacheContainer cacheManager = containers().iterator().next();
+        BasicCache<Object, Object> cache = cacheManager.getCache(CRESON_CACHE_NAME);
+        Factory factory = Factory.forCache(cache);
+
+        CounterObject counter = factory.getInstanceOf(CounterObject.class, "dispatch", true, false, false);
+        counter.increment(); // fetches the state
+
+        int f = 100; // multiplicative factor
+
+        long start = System.nanoTime();
+        for (int i = 0; i < NCALLS * f; i++) {
+            assert counter.tally() == 1;
+        }
+        long duration = System.nanoTime() - start;
+        float perCall = ((float) duration) / ((float) (NCALLS * f));
+        System.out.println("ns/op:" + perCall);
+        assert perCall < MAX_NANOS_PER_LOCAL_CALL : perCall; // the reads never leave the client
+
+    }
+
+    @Test(groups = {"creson", "stress"})
+    public void containerCreation() throws Exception {
+
+        BasicCacheContainer cacheManager = containers().iterator().next();
+        BasicCache<Object, Object> cache = cacheManager.getCache(CRESON_CACHE_NAME);
+        Factory factory = Factory.forCache(cache);
+
+        int f = 20; // multiplicative factor
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < NCALLS * f; i++) {
+            factory.getInstanceOf(SimpleObject.class, "creation" + i);
+        }
+        System.out.println("containers/sec:" + ((float) (NCALLS * f)) / ((float) (System.currentTimeMillis() - start)) * 1000);
+
+        for (int i = 0; i < NCALLS * f; i++) {
+            factory.disposeInstanceOf(SimpleObject.class, "creation" + i);
+        }
+
+    }
+
+    @Test(groups = {"creson", "stress"})
+    public void callEncoding() throws Exception {
+
+        Reference reference = new Reference<>(CounterObject.class, "encoding");
+        CallInvoke call = new CallInvoke(reference, 42, "add", new Object[]{1});
+        call.setStateVersion(1L << 40);
+        CallResponse response = new CallResponse(reference, call);
+        response.setResult(43);
+
+        Map<String, Integer> sizes = new HashMap<>();
+        for (Marshaller marshaller : new Marshaller[]{new GenericJBossMarshaller(), new CresonMarshaller()}) {
+            for (Object message : new Object[]{call, response}) {
+                byte[] bytes = marshaller.objectToByteBuffer(message);
+                sizes.put(marshaller.getClass().getSimpleName() + "/" + message.getClass().getSimpleName(), bytes.length);
+                long start = System.nanoTime();
+                for (int i = 0; i < NCALLS; i++) {
+                    marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(message));
+                }
+                long duration = System.nanoTime() - start;
+                System.out.println(marshaller.getClass().getSimpleName() + " " + message.getClass().getSimpleName()
+                        + " bytes:" + bytes.length + ", ns/op:" + ((float) duration) / ((float) (NCALLS)));
+            }
+        }
+
+        // the sizes measured with the compact encoding (resp. 199 and 189 bytes with the generic one)
+        assert sizes.get("CresonMarshaller/CallInvoke") <= 90 : sizes;
+        assert sizes.get("CresonMarshaller/CallResponse") <= 78 : sizes;
+
+        Marshaller marshaller = new CresonMarshaller();
+        CallInvoke decoded = (CallInvoke) marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(call));
+        assert decoded.equals(call) && decoded.getReference().equals(reference) && decoded.arguments[0].equals(1);
+        assert decoded.getStateVersion() == call.getStateVersion();
+
+    }
+
+    @Test(groups = {"creson"})
+    public void methodIdentifiers() throws Exception {
+
+        ClassMetadata metadata = ClassMetadata.of(CounterObject.class);
+        int id = metadata.idOf(CounterObject.class.getMethod("add", int.class));
+        assert id >= 0 && metadata.findMethod(id, null, new Object[]{1}).getMethod().getName().equals("add");
+
+        Reference reference = new Reference<>(CounterObject.class, "identifiers");
+        Marshaller marshaller = new CresonMarshaller();
+        CallInvoke byName = new CallInvoke(reference, 42, "add", new Object[]{1});
+        CallInvoke byId = new CallInvoke(reference, 42, id, "add", new Object[]{1});
+        byte[] bytes = marshaller.objectToByteBuffer(byId);
+        assert bytes.length < marshaller.objectToByteBuffer(byName).length;
+        CallInvoke decoded = (CallInvoke) marshaller.objectFromByteBuffer(bytes);
+        assert decoded.methodId == id && decoded.method == null && decoded.schema == metadata.getSchema();
+
+        // a server with other methods rejects the identifier
+        BasicCache<Object, Object> cache = containers().iterator().next().getCache(CRESON_CACHE_NAME);
+        CounterObject counter = Factory.forCache(cache).getInstanceOf(CounterObject.class, "identifiers");
+        counter.increment();
+        CallInvoke stale = new CallInvoke(reference, ContextManager.get().nextCallID(), id, "add", new Object[]{1});
+        stale.schema++;
+        assert ((CallResponse) cache.put(reference, stale)).getResult() instanceof IllegalStateException;
+        assert counter.tally() == 1;
+
+        // the overload is designated exactly
+        List<Integer> list = new ArrayList<>(Arrays.asList(5, 0));
+        int remove = ClassMetadata.of(ArrayList.class).idOf(ArrayList.class.getMethod("remove", int.class));
+        Reflection.callObject(list, remove, null, new Object[]{0});
+        assert list.equals(Collections.singletonList(0));
+
+    }
+
+    @Test(groups = {"creson"})
+    public void entitySerializer() throws Exception {
+
+        State state = new State();
+        state.count = 42;
+        state.values = new long[]{1, 2, 3};
+        state.name = "state";
+        state.other = new ArrayList<>(Arrays.asList(1, 2));
+        state.flags = new boolean[]{true, false};
+        state.cache = "ignored";
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            EntitySerializer.of(State.class).write(state, output);
+        }
+        State read = new State();
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            EntitySerializer.of(State.class).read(read, input);
+        }
+        assert read.count == 42 && Arrays.equals(read.values, state.values) && read.name.equals("state");
+        assert read.other.equals(state.other) && Arrays.equals(read.flags, state.flags);
+        assert read.raw == null && read.cache == null;
+
+    }
+
+    public static class State {
+        public int count;
+        public long[] values;
+        public String name;
+        public Object other;
+        public byte[] raw;
+        public boolean[] flags;
+        public transient String cache;
+    }
+
+    @Test(groups = {"creson"})
+    public void compression() throws Exception {
+
+        Marshaller marshaller = new CresonMarshaller();
+        byte[] zeros = new byte[1 << 16];
+        byte[] noise = new byte[1 << 16];
+        new Random(0).nextBytes(noise);
+
+        Reference reference = new Reference<>(CounterObject.class, "compression");
+        CallResponse response = new CallResponse(reference, new CallInvoke(reference, 1, "tally", new Object[0]));
+        response.setState(zeros);
+        response.setResult(noise);
+        byte[] bytes = marshaller.objectToByteBuffer(response);
+        assert bytes.length < noise.length + 1024; // only the state is compressed
+        CallResponse decoded = (CallResponse) marshaller.objectFromByteBuffer(bytes);
+        assert Arrays.equals((byte[]) decoded.getState(), zeros);
+        assert Arrays.equals((byte[]) decoded.getResult(), noise);
+
+        reference = new Reference<>(Uncompressed.class, "compression");
+        response = new CallResponse(reference, new CallInvoke(reference, 1, "toString", new Object[0]));
+        response.setState(zeros);
+        assert marshaller.objectToByteBuffer(response).length > zeros.length;
+
+        ByteArrayOutputStream corrupted = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(corrupted)) {
+            output.writeByte(9); // an array of bytes
+            VarInt.writeVarInt(output, Integer.MAX_VALUE);
+        }
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(corrupted.toByteArray()))) {
+            Encoding.readValue(input);
+            assert false;
+        } catch (IOException e) {
+            // expected
+        }
+
+    }
+
+    @Compression(threshold = 0)
+    public static class Uncompressed {
+    }
+
+    @Test(groups = {"creson", "stress"})
+    public void allocationRate() throws Exception {
+
+        BasicCacheContainer cacheManager = containers().iterator().next();
+        BasicCache<Object, Object> cache = cacheManager.getCache(CRESON_CACHE_NAME);
+        Factory factory = Factory.forCache(cache);
+
+        CounterObject counter = factory.getInstanceOf(CounterObject.class, "allocation");
+        for (int i = 0; i < NCALLS; i++) { // warm-up
+            counter.increment();
+        }
+
+        // the calls are executed by the mailboxes of the servers, from the primary down to the state machine
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] mailboxes = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("creson-mailbox"))
+                .mapToLong(Thread::getId)
+                .toArray();
+        if (mailboxes.length == 0)
+            return; // the calls run in the threads of the clients
+
+        List<Integer> deltas = Arrays.asList(1, 2); // an argument left to the marshaller
+        float perCall = Float.MAX_VALUE;
+        for (int round = 0; round < 3; round++) { // the least noisy round
+            long before = LongStream.of(threads.getThreadAllocatedBytes(mailboxes)).sum();
+            for (int i = 0; i < NCALLS; i++) {
+                counter.incrementAll(deltas);
+            }
+            long after = LongStream.of(threads.getThreadAllocatedBytes(mailboxes)).sum();
+            perCall = Math.min(perCall, ((float) (after - before)) / ((float) NCALLS));
+        }
+        System.out.println("bytes/op:" + perCall);
+        assert perCall < MAX_BYTES_PER_CALL : perCall;
+
+    }
+
+    @Test(groups = {"creson"})
+    public void mailboxes() throws Exception {
+
+        BasicCacheContainer cacheManager = containers().iterator().next();
+        BasicCache<Object, Object> cache = cacheManager.getCache(CRESON_CACHE_NAME);
+        Factory factory = Factory.forCache(cache);
+
+        SimpleObject object = factory.getInstanceOf(SimpleObject.class, "mailboxes");
+        for (int i = 0; i < 100; i++) {
+            String thread = object.getThread();
+            assert !thread.contains("HotRod") : thread; // the calls from the clients leave the workers at once
+        }
+
+        Reference reference = new Reference<>(SimpleObject.class, "mailboxes");
+        for (EmbeddedCacheManager manager : cacheManagers) {
+            MailboxInterceptor mailboxes = ConfigurationHelper.getMailboxes(manager.getCache(CRESON_CACHE_NAME));
+            assert mailboxes == null || mailboxes.getQueueDepth(reference) == 0;
+        }
+
+    }
+
+    @Test(groups = {"creson"})
+    public void parkedCalls() throws Exception {
+        parkedCalls("parked", 100);
+    }
+
+    @Test(groups = {"creson", "stress"})
+    public void manyParkedCalls() throws Exception {
+        parkedCalls("manyParked", 2000);
+    }
+
+    private void parkedCalls(String name, int waiters) throws Exception {
+
+        BasicCacheContainer cacheManager = containers().iterator().next();
+        BasicCache<Object, Object> cache = cacheManager.getCache(CRESON_CACHE_NAME);
+        Factory factory = Factory.forCache(cache);
+
+        RetryPolicy policy = factory.getRetryPolicy();
+        factory.setRetryPolicy(new RetryPolicy(1, 60000, 60000, 0.99, 1, 0, 0)); // the waiters are not resent
+        SemaphoreObject semaphore = factory.getInstanceOf(SemaphoreObject.class, name);
+        factory.setRetryPolicy(policy);
+        assert semaphore.available() == 0;
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < waiters; i++) {
+            futures.add(factory.invokeAsync(semaphore, "acquire"));
+        }
+        Thread.sleep(1000);
+        for (CompletableFuture<Void> future : futures) {
+            assert !future.isDone();
+        }
+
+        long start = System.currentTimeMillis();
+        semaphore.release(waiters);
+        for (CompletableFuture<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        System.out.println("waiters:" + waiters + ", ms:" + (System.currentTimeMillis() - start));
+
+        assert semaphore.available() == 0;
+
+    }
+
+    @Test(groups = {"creson"})
+    public void parkedWrites() throws Exception {
+
+        BasicCacheContainer cacheManager = containers().iterator().next();
+        BasicCache<Object, Object> cache = cacheManager.getCache(CRESON_CACHE_NAME);
+        Factory factory = Factory.forCache(cache);
+
+        int waiters = 10;
+        RetryPolicy policy = factory.getRetryPolicy();
+        factory.setRetryPolicy(new RetryPolicy(1, 60000, 60000, 0.99, 1, 0, 0)); // the waiters are not resent
+        SemaphoreObject semaphore = factory.getInstanceOf(SemaphoreObject.class, "parkedWrites");
+        factory.setRetryPolicy(policy);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < waiters; i++) {
+            futures.add(factory.invokeAsync(semaphore, "arriveAndAcquire"));
+        }
+        Thread.sleep(1000);
+        assert semaphore.arrivals() == 0; // the parked calls left the object unchanged
+
+        semaphore.release(waiters);
+        for (CompletableFuture<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        assert semaphore.arrivals() == waiters;
+
+        // the replicas agree
+        Reference reference = new Reference<>(SemaphoreObject.class, "parkedWrites");
+        int replicas = 0;
+        for (EmbeddedCacheManager manager : cacheManagers) {
+            InternalCacheEntry entry = manager.getCache(CRESON_CACHE_NAME).getAdvancedCache().getDataContainer().get(reference);
+            if (entry != null) {
+                SemaphoreObject replica = (SemaphoreObject) entry.getValue();
+                assert replica.arrivals == waiters && replica.permits == 0 : replica;
+                replicas++;
+            }
+        }
+        assert replicas == REPLICATION_FACTOR;
+
+    }
+
     @Test(groups = {"creson"})
     public void baseCacheTest() throws Exception {
 
@@ -315,7 +988,7 @@ public abstract class AbstractTest extends MultipleCacheManagersTest {
         assert l1 instanceof Proxy;
         assert l1.size() == 1;
         l1.remove(0);
-        assert l1.size() == 1;
+        assert l1.size() == 0;
     }
 
     @Test(groups = {"creson", "stress"}, enabled = false)
@@ -418,20 +1091,107 @@ public abstract class AbstractTest extends MultipleCacheManagersTest {
         SimpleObject object = new SimpleObject("idempotence");
         object.getCount(); // to open it.
 
-        RandomBasedGenerator generator = null;
-
-        generator = Generators.randomBasedGenerator(new Random(42));
-        ContextManager.set(new Context(ID.threadID(), generator, Factory.forCache(cache(0))));
+        // the same call, issued twice
+        ContextManager.set(new Context(42, Factory.forCache(cache(0))));
         object.setField("a");
 
-        generator = Generators.randomBasedGenerator(new Random(42));
-        ContextManager.set(new Context(ID.threadID(), generator, Factory.forCache(cache(0))));
+        ContextManager.set(new Context(42, Factory.forCache(cache(0))));
         object.setField("a");
 
         assert object.getCount() == 1;
 
     }
 
+    @Test(groups = {"creson"})
+    public void idempotenceRecords() throws Exception {
+
+        Context initial = ContextManager.get();
+        ContextManager.set(new Context(43, Factory.forCache(cache(0))));
+        CounterObject counter = new CounterObject("records");
+        counter.increment();
+        ContextManager.set(initial);
+
+        // the records travel with the entry, e.g., upon state transfer
+        Reference reference = new Reference<>(CounterObject.class, "records");
+        int replicas = 0;
+        for (EmbeddedCacheManager manager : cacheManagers) {
+            InternalCacheEntry entry = manager.getCache(CRESON_CACHE_NAME).getAdvancedCache().getDataContainer().get(reference);
+            if (entry == null)
+                continue;
+            StreamingMarshaller marshaller = TestingUtil.extractGlobalMarshaller(manager);
+            Metadata metadata = (Metadata) marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(entry.getMetadata()));
+            assert metadata instanceof ResponseMetadata : metadata;
+
+            CallResponseCache table = new CallResponseCache();
+            ((ResponseMetadata) metadata).restore(table, reference);
+            ContextManager.set(new Context(43, Factory.forCache(cache(0))));
+            for (long callID = 0; callID < 2; callID++) { // the construction, then the increment
+                assert table.get(new Call(reference, callID)) != null : callID;
+            }
+            ContextManager.set(initial);
+            replicas++;
+        }
+        assert replicas == REPLICATION_FACTOR;
+
+    }
+
+    @Test(groups = {"creson", "stress"})
+    public void idempotenceTable() {
+        final int sessions = 64;
+        final int objects = 16;
+        final int window = 4; // calls in progress per session
+        final int calls = 200;
+
+        Context initial = ContextManager.get();
+        CallResponseCache table = new CallResponseCache();
+        List<Context> contexts = new ArrayList<>();
+        for (int s = 0; s < sessions; s++) {
+            contexts.add(new Context(s, Factory.forCache(cache(0))));
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < calls; i++) {
+            for (Context context : contexts) {
+                ContextManager.set(context);
+                for (int o = 0; o < objects; o++) {
+                    Call call = new Call(new Reference<>(SimpleObject.class, o), context.nextCallID());
+                    call.setWatermark(Math.max(0, call.getCallID() - window + 1));
+                    if (table.get(call) == null) {
+                        CallResponse response = new CallResponse(call.getReference(), call);
+                        response.setResult(i);
+                        table.put(call, response);
+                    }
+                }
+            }
+        }
+        long duration = System.currentTimeMillis() - start;
+        ContextManager.set(initial);
+
+        System.out.println("op/sec:" + ((float) (calls * sessions * objects)) / ((float) duration) * 1000
+                + ", entries:" + table.size() + ", evictions:" + table.evictions());
+        // the watermark of a session is above all the calls but the last one on each object
+        assert table.size() == sessions * objects : table.size();
+        assert table.evictions() == 0;
+
+        // the sessions whose results are all acknowledged count against the capacity as well
+        final int capacity = 64;
+        table = new CallResponseCache(window, capacity);
+        for (Context context : contexts) {
+            ContextManager.set(context);
+            for (int o = 0; o < objects; o++) {
+                Call call = new Call(new Reference<>(SimpleObject.class, o), context.nextCallID());
+                CallResponse response = new CallResponse(call.getReference(), call);
+                table.put(call, response);
+                Call next = new Call(call.getReference(), context.nextCallID());
+                next.setWatermark(next.getCallID());
+                table.get(next);
+            }
+        }
+        ContextManager.set(initial);
+        assert table.size() == 0;
+        assert table.sessions() <= capacity : table.sessions();
+    }
+
     //
     // Interface
     //
@@ -476,6 +1236,19 @@ public abstract class AbstractTest extends MultipleCacheManagersTest {
         TestingUtil.sleepThread(1000);
     }
 
+    @Listener
+    public static class ModificationCounter {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @CacheEntryModified
+        public void onModified(CacheEntryModifiedEvent<Object, Object> event) {
+            if (!event.isPre())
+                count.incrementAndGet();
+        }
+
+    }
+
     public class SetTask implements Callable<Integer> {
 
         private int ncalls;
@@ -0,0 +1,51 @@
+package org.infinispan.creson.test;
+
+import org.infinispan.creson.Commutative;
+import org.infinispan.creson.ReadOnly;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.util.List;
+
+/**
+ * @author Pierre Sutra
+ */
+@Entity
+public class CounterObject {
+
+   @Id public String name;
+   public int count;
+
+   public CounterObject(){
+      name = "counter";
+      count = 0;
+   }
+
+   public CounterObject(String name){
+      this.name = name;
+   }
+
+   public int increment(){
+      return ++count;
+   }
+
+   public int incrementAll(List<Integer> deltas){
+      for (int delta : deltas) count += delta;
+      return count;
+   }
+
+   @Commutative
+   public void add(int delta){
+      count += delta;
+   }
+
+   @ReadOnly
+   public int tally(){
+      return count;
+   }
+
+   public String toString(){
+      return "CounterObject["+name+","+count+"]";
+   }
+
+}
@@ -2,8 +2,10 @@ package org.infinispan.creson.test;
 
 import org.infinispan.client.hotrod.RemoteCacheManager;
 import org.infinispan.commons.api.BasicCacheContainer;
-import org.infinispan.commons.marshall.Marshaller;
 import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.creson.utils.CresonMarshaller;
 import org.infinispan.manager.EmbeddedCacheManager;
 import org.infinispan.server.hotrod.HotRodServer;
 import org.infinispan.server.hotrod.test.HotRodTestingUtil;
@@ -15,6 +17,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.infinispan.creson.Factory.CRESON_CACHE_NAME;
+import static org.infinispan.creson.utils.ConfigurationHelper.addExternalizers;
 import static org.infinispan.creson.utils.ConfigurationHelper.installCreson;
 
 @CleanupAfterTest
@@ -43,7 +46,9 @@ public class Emulation extends MultipleCacheManagersTest {
         // embedded cache manager
         TransportFlags flags = new TransportFlags();
         flags.withFD(true).withMerge(true);
-        EmbeddedCacheManager cm = addClusterEnabledCacheManager();
+        EmbeddedCacheManager cm = addClusterEnabledCacheManager(
+                addExternalizers(GlobalConfigurationBuilder.defaultClusteredBuilder()),
+                new ConfigurationBuilder());
         installCreson(
                 cm,
                 CACHE_MODE,
@@ -66,7 +71,7 @@ public class Emulation extends MultipleCacheManagersTest {
         RemoteCacheManager manager = new RemoteCacheManager(
                 new org.infinispan.client.hotrod.configuration.ConfigurationBuilder()
                         .addServers(server.getHost() + ":" + server.getPort())
-                        .marshaller((Marshaller) null)
+                        .marshaller(new CresonMarshaller())
                         .forceReturnValues(true)
                         .build());
 
@@ -0,0 +1,39 @@
+package org.infinispan.creson.test;
+
+import org.infinispan.creson.ReadOnly;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * @author Pierre Sutra
+ */
+@Entity
+public class RegisterObject {
+
+   @Id public String name;
+   public int value;
+
+   public RegisterObject(){
+      name = "register";
+   }
+
+   public RegisterObject(String name){
+      this.name = name;
+   }
+
+   public void write(int value){
+      this.value = value;
+   }
+
+   @ReadOnly
+   public int read(long millis) throws InterruptedException {
+      Thread.sleep(millis);
+      return value;
+   }
+
+   public String toString(){
+      return "RegisterObject["+name+","+value+"]";
+   }
+
+}
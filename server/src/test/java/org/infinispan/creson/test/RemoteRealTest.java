@@ -3,6 +3,7 @@ package org.infinispan.creson.test;
 import org.infinispan.client.hotrod.RemoteCacheManager;
 import org.infinispan.commons.api.BasicCacheContainer;
 import org.infinispan.creson.Factory;
+import org.infinispan.creson.utils.CresonMarshaller;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -48,6 +49,7 @@ public abstract class RemoteRealTest extends AbstractTest {
             org.infinispan.client.hotrod.configuration.ConfigurationBuilder cb
                     = new org.infinispan.client.hotrod.configuration.ConfigurationBuilder();
             cb.addServer().host(host).port(port).forceReturnValues(true);
+            cb.marshaller(new CresonMarshaller());
             RemoteCacheManager manager = new RemoteCacheManager(cb.build());
             manager.start();
             manager.getCache(CRESON_CACHE_NAME).clear();
@@ -1,9 +1,12 @@
 package org.infinispan.creson.test;
 
 import org.infinispan.client.hotrod.RemoteCacheManager;
+import org.infinispan.commons.CacheException;
 import org.infinispan.commons.api.BasicCacheContainer;
-import org.infinispan.commons.marshall.Marshaller;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
 import org.infinispan.creson.Factory;
+import org.infinispan.creson.utils.CresonMarshaller;
 import org.infinispan.lifecycle.ComponentStatus;
 import org.infinispan.manager.EmbeddedCacheManager;
 import org.infinispan.server.hotrod.HotRodServer;
@@ -16,6 +19,7 @@ import java.util.Collection;
 import java.util.List;
 
 import static org.infinispan.creson.Factory.CRESON_CACHE_NAME;
+import static org.infinispan.creson.utils.ConfigurationHelper.addExternalizers;
 import static org.infinispan.creson.utils.ConfigurationHelper.installCreson;
 import static org.infinispan.test.TestingUtil.blockUntilCacheStatusAchieved;
 import static org.testng.Assert.assertEquals;
@@ -47,7 +51,10 @@ public class RemoteTest extends AbstractTest {
         // embedded cache manager
         TransportFlags flags = new TransportFlags();
         flags.withFD(true).withMerge(true);
-        EmbeddedCacheManager cm = addClusterEnabledCacheManager(flags);
+        EmbeddedCacheManager cm = addClusterEnabledCacheManager(
+                addExternalizers(GlobalConfigurationBuilder.defaultClusteredBuilder()),
+                new ConfigurationBuilder(),
+                flags);
         installCreson(
                 cm,
                 CACHE_MODE,
@@ -57,7 +64,8 @@ public class RemoteTest extends AbstractTest {
                 PERSISTENT_STORAGE_DIR + "/" + index,
                 true,
                 false,
-                true);
+                true,
+                MAILBOXES);
         waitForClusterToForm(CRESON_CACHE_NAME);
 
         // hotrod server
@@ -70,7 +78,7 @@ public class RemoteTest extends AbstractTest {
         RemoteCacheManager manager = new RemoteCacheManager(
                 new org.infinispan.client.hotrod.configuration.ConfigurationBuilder()
                         .addServers(server.getHost() + ":" + server.getPort())
-                        .marshaller((Marshaller) null)
+                        .marshaller(new CresonMarshaller())
                         .forceReturnValues(true)
                         .build());
         remoteCacheManagers.add(manager);
@@ -124,4 +132,21 @@ public class RemoteTest extends AbstractTest {
         Factory.forCache(container(0).getCache(CRESON_CACHE_NAME), true);
     }
 
+    @Test(groups = {"creson"})
+    public void wrongMarshaller() throws Exception {
+        RemoteCacheManager manager = new RemoteCacheManager(
+                new org.infinispan.client.hotrod.configuration.ConfigurationBuilder()
+                        .addServers(servers.get(0).getHost() + ":" + servers.get(0).getPort())
+                        .forceReturnValues(true)
+                        .build());
+        try {
+            Factory.forCache(manager.getCache(CRESON_CACHE_NAME));
+            assert false;
+        } catch (CacheException e) {
+            assert e.getMessage().contains(CresonMarshaller.class.getName());
+        } finally {
+            manager.stop();
+        }
+    }
+
 }
@@ -0,0 +1,59 @@
+package org.infinispan.creson.test;
+
+import org.infinispan.creson.Parkable;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * @author Pierre Sutra
+ */
+@Entity
+public class SemaphoreObject {
+
+   @Id public String name;
+   public int permits;
+   public int arrivals;
+
+   public SemaphoreObject(){
+      name = "semaphore";
+   }
+
+   public SemaphoreObject(String name){
+      this.name = name;
+   }
+
+   @Parkable
+   public synchronized void acquire() throws InterruptedException {
+      while (permits <= 0)
+         this.wait();
+      permits--;
+   }
+
+   @Parkable
+   public synchronized void arriveAndAcquire() throws InterruptedException {
+      arrivals++; // written before waiting
+      while (permits <= 0)
+         this.wait();
+      permits--;
+   }
+
+   public synchronized void release(int n){
+      permits += n;
+      for (int i = 0; i < n; i++)
+         this.notify();
+   }
+
+   public synchronized int available(){
+      return permits;
+   }
+
+   public synchronized int arrivals(){
+      return arrivals;
+   }
+
+   public String toString(){
+      return "SemaphoreObject["+name+","+permits+"]";
+   }
+
+}
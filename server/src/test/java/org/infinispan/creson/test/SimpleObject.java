@@ -25,6 +25,8 @@ public class SimpleObject {
 
    public int getCount(){ return count;}
 
+   public String getThread(){ return Thread.currentThread().getName();}
+
    public void setField(String f){
       field = f;
       count ++;